@@ -0,0 +1,292 @@
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Benchmarks of the conversions, the filters and the analysis plugins.
+ *
+ * The images are synthetic (random pixels). The plugins are set up without dialogs, and their parameters are set by reflection.
+ * System properties:
+ *   bench.sizes     sizes of the images (default "512,2048,4096")
+ *   bench.iter      number of measured iterations (default 10)
+ *   bench.warmup    number of warm-up iterations (default 3)
+ *   bench.out       CSV file of the results (optional)
+ *   bench.baseline  CSV file of a previous run. The exit code is 1 if a benchmark is slower than the baseline * bench.tolerance.
+ *   bench.tolerance allowed ratio to the baseline (default 1.2)
+ */
+public class IJToolsBenchmark {
+    private static final Random RND = new Random(1);
+
+    private static int numIter = 10;
+    private static int numWarmup = 3;
+    private static final LinkedHashMap<String, Double> results = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        numIter = Integer.getInteger("bench.iter", numIter);
+        numWarmup = Integer.getInteger("bench.warmup", numWarmup);
+        String[] sizes = System.getProperty("bench.sizes", "512,2048,4096").split(",");
+
+        if(!OCV__LoadLibrary.LoadLibrary()) {
+            System.err.println("OpenCV library is not loaded.");
+            System.exit(2);
+        }
+
+        System.out.println("name,median_ms,min_ms");
+
+        for(String s : sizes) {
+            int size = Integer.parseInt(s.trim());
+            benchConversions(size);
+            benchFilters(size);
+            benchAnalysis(size);
+        }
+
+        writeResults(System.getProperty("bench.out"));
+        System.exit(compareBaseline(System.getProperty("bench.baseline"), Double.parseDouble(System.getProperty("bench.tolerance", "1.2"))));
+    }
+
+    // OCV__LoadLibrary.mat2intarray / intarray2mat
+    private static void benchConversions(int size) {
+        int[] arr = (int[])randomProcessor(24, size, size).getPixels();
+        Mat mat = new Mat(size, size, CvType.CV_8UC3);
+        byte[][] buf = new byte[1][];
+
+        bench("intarray2mat/" + size, () -> OCV__LoadLibrary.intarray2mat(arr, mat, size, size));
+        bench("mat2intarray/" + size, () -> OCV__LoadLibrary.mat2intarray(mat, arr, size, size));
+        bench("mat2intarray_buf/" + size, () -> buf[0] = OCV__LoadLibrary.mat2intarray(mat, arr, size, size, buf[0]));
+        mat.release();
+    }
+
+    // run() of the filters for each bit depth
+    private static void benchFilters(int size) throws Exception {
+        for(int bitDepth : new int[] { 8, 16, 24, 32 }) {
+            ImageProcessor ip = randomProcessor(bitDepth, size, size);
+            ImagePlus imp = new ImagePlus("bench", ip);
+            String suffix = "/" + bitDepth + "bit/" + size;
+
+            if(bitDepth != 24) {
+                OCV_GaussianBlur gauss = new OCV_GaussianBlur();
+                gauss.setup("", imp);
+                setField(gauss, "ksize", new Size(5, 5));
+                bench("OCV_GaussianBlur" + suffix, () -> gauss.run(ip));
+            }
+
+            OCV_Blur blur = new OCV_Blur();
+            blur.setup("", imp);
+            setField(blur, "ksize", new Size(5, 5));
+            bench("OCV_Blur" + suffix, () -> blur.run(ip));
+
+            OCV_MedianBlur median = new OCV_MedianBlur();
+            median.setup("", imp);
+            setField(median, "bitDepth", bitDepth);
+            bench("OCV_MedianBlur" + suffix, () -> median.run(ip));
+
+            OCV_MorphologyEx morph = new OCV_MorphologyEx();
+            morph.setup("", imp);
+            setField(morph, "kernel", Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(5, 5)));
+            setField(morph, "anchor", new Point(-1, -1));
+            bench("OCV_MorphologyEx" + suffix, () -> morph.run(ip));
+
+            if(bitDepth == 8 || bitDepth == 32) {
+                OCV_Threshold thr = new OCV_Threshold();
+                thr.setup("", imp);
+                ImageProcessor ip_thr = ip.duplicate();
+                bench("OCV_Threshold" + suffix, () -> thr.run(ip_thr));
+            }
+
+            if(bitDepth != 24) {
+                WK_Math math = new WK_Math();
+                FloatProcessor fp = ip.convertToFloatProcessor();
+                bench("WK_Math" + suffix, () -> math.run(fp));
+            }
+        }
+    }
+
+    // WK_HoughCircles.houghCircles and WK_HuMoments.calc_moments
+    private static void benchAnalysis(int size) throws Exception {
+        // circles on a sparse edge image (HoughCircles is slow, so the image is limited to 1024)
+        int size_hough = Math.min(size, 1024);
+        ByteProcessor edge = new ByteProcessor(size_hough, size_hough);
+        edge.setColor(255);
+
+        for(int i = 0; i < 20; i++) {
+            int r = 10 + RND.nextInt(20);
+            edge.drawOval(RND.nextInt(size_hough - 2 * r), RND.nextInt(size_hough - 2 * r), 2 * r, 2 * r);
+        }
+
+        int rmin = 10;
+        int rmax = 30;
+        WK_HoughCircles hough = new WK_HoughCircles();
+        byte[] src = (byte[])edge.getPixels();
+        short[] dst = new short[size_hough * size_hough * (rmax - rmin + 1)];
+        bench("WK_HoughCircles.houghCircles/" + size_hough, () -> invoke(hough, "houghCircles", src, dst, size_hough, 0, 0, size_hough, size_hough, rmin, rmax, 360));
+
+        WK_HuMoments hu = new WK_HuMoments();
+        float[] flt = (float[])randomProcessor(32, size, size).getPixels();
+        Object mom = newInner(hu, "moments");
+        bench("WK_HuMoments.calc_moments/" + size, () -> invoke(hu, "calc_moments", flt, mom, size, size));
+    }
+
+    // harness
+    private static void bench(String name, Runnable task) {
+        for(int i = 0; i < numWarmup; i++) {
+            task.run();
+        }
+
+        double[] times = new double[numIter];
+
+        for(int i = 0; i < numIter; i++) {
+            long t0 = System.nanoTime();
+            task.run();
+            times[i] = (System.nanoTime() - t0) / 1e6;
+        }
+
+        Arrays.sort(times);
+        double median = times[numIter / 2];
+        results.put(name, median);
+        System.out.println(name + "," + String.format(Locale.US, "%.3f", median) + "," + String.format(Locale.US, "%.3f", times[0]));
+    }
+
+    private static void writeResults(String path) throws IOException {
+        if(path == null) {
+            return;
+        }
+
+        try(PrintWriter pw = new PrintWriter(path, "UTF-8")) {
+            for(Map.Entry<String, Double> ent : results.entrySet()) {
+                pw.println(ent.getKey() + "," + String.format(Locale.US, "%.3f", ent.getValue()));
+            }
+        }
+    }
+
+    private static int compareBaseline(String path, double tolerance) throws IOException {
+        if(path == null) {
+            return 0;
+        }
+
+        int ret = 0;
+
+        for(String line : Files.readAllLines(Paths.get(path))) {
+            String[] cols = line.split(",");
+            Double cur = results.get(cols[0]);
+
+            if(cols.length < 2 || cur == null) {
+                continue;
+            }
+
+            double base = Double.parseDouble(cols[1]);
+
+            if(base * tolerance < cur) {
+                System.out.println("REGRESSION : " + cols[0] + " " + base + " ms -> " + cur + " ms");
+                ret = 1;
+            }
+        }
+
+        return ret;
+    }
+
+    // synthetic images
+    private static ImageProcessor randomProcessor(int bitDepth, int w, int h) {
+        ImageProcessor ip;
+
+        switch(bitDepth) {
+            case 8:
+                ip = new ByteProcessor(w, h);
+                break;
+            case 16:
+                ip = new ShortProcessor(w, h);
+                break;
+            case 24:
+                ip = new ColorProcessor(w, h);
+                break;
+            default:
+                ip = new FloatProcessor(w, h);
+                break;
+        }
+
+        for(int i = 0; i < w * h; i++) {
+            ip.set(i, bitDepth == 32 ? Float.floatToIntBits(RND.nextFloat() * 255) : RND.nextInt());
+        }
+
+        return ip;
+    }
+
+    // reflection
+    private static void setField(Object obj, String name, Object value) throws ReflectiveOperationException {
+        Field f = obj.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(obj, value);
+    }
+
+    private static Object newInner(Object outer, String name) throws ReflectiveOperationException {
+        for(Class<?> c : outer.getClass().getDeclaredClasses()) {
+            if(c.getSimpleName().equals(name)) {
+                Constructor<?> con = c.getDeclaredConstructors()[0];
+                con.setAccessible(true);
+                return con.getParameterCount() == 0 ? con.newInstance() : con.newInstance(outer);
+            }
+        }
+
+        throw new NoSuchMethodException(name);
+    }
+
+    private static void invoke(Object obj, String name, Object... args) {
+        try {
+            for(Method m : obj.getClass().getDeclaredMethods()) {
+                if(m.getName().equals(name) && m.getParameterCount() == args.length) {
+                    m.setAccessible(true);
+                    m.invoke(obj, args);
+                    return;
+                }
+            }
+
+            throw new NoSuchMethodException(name);
+        }
+        catch(ReflectiveOperationException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Virtual stack of which each slice is the result of OCV_FilterChain applied to a source stack.
+ * A slice is processed on the first access and kept in a LRU cache of a bounded number of slices.
+ * The neighbouring slices are processed in the background (prefetch), so scrolling does not wait for the filter.
+ * A slice which is not ready is processed on the calling thread, and the queued prefetches out of the new neighbourhood are cancelled.
+ * The processed stack is never materialized in memory.
+ */
+public class MyFilteredStack extends VirtualStack {
+    // var.
+    private final String plugin;
+    private final ImageStack stackSrc;
+    private final List<OCV_FilterChain.Step> steps;
+    private final int maxSlices;
+    private final int numPrefetch;
+    private final int bitDepth;
+    private final LinkedHashMap<Integer, ImageProcessor> cache;
+    private final ConcurrentHashMap<Integer, Future<ImageProcessor>> inflight = new ConcurrentHashMap<>();
+    private final Set<Integer> running = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param plugin name of the plugin under which the Mats are reserved
+     * @param stackSrc source stack (8-bit, 16-bit or 32-bit)
+     * @param steps steps of OCV_FilterChain
+     * @param maxSlices max number of the processed slices kept in memory
+     * @param numPrefetch number of the slices processed in advance on each side of the accessed slice
+     */
+    public MyFilteredStack(String plugin, ImageStack stackSrc, List<OCV_FilterChain.Step> steps, int maxSlices, int numPrefetch) {
+        this(plugin, stackSrc, steps, maxSlices, numPrefetch, OCV_FilterChain.apply(plugin, steps, stackSrc.getProcessor(1).duplicate()));
+    }
+
+    private MyFilteredStack(String plugin, ImageStack stackSrc, List<OCV_FilterChain.Step> steps, int maxSlices, int numPrefetch, ImageProcessor ipFirst) {
+        super(ipFirst.getWidth(), ipFirst.getHeight(), stackSrc.getSize());
+        this.plugin = plugin;
+        this.stackSrc = stackSrc;
+        this.steps = steps;
+        this.maxSlices = Math.max(1, maxSlices);
+        this.numPrefetch = Math.max(0, numPrefetch);
+        this.bitDepth = ipFirst.getBitDepth();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        int numThreads = Math.max(1, Math.min(this.numPrefetch, Runtime.getRuntime().availableProcessors()));
+
+        // The queue holds at most one neighbourhood. The prefetches beyond it are rejected.
+        this.pool = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(Math.max(1, 2 * this.numPrefetch)), r -> {
+            Thread th = new Thread(r, "MyFilteredStack");
+            th.setDaemon(true);
+            return th;
+        });
+
+        putCache(1, ipFirst);
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        ImageProcessor ip = getProcessed(n);
+        prefetch(n);
+
+        // The pixels are shared with the cache.
+        ImageProcessor ipDst = ip.createProcessor(ip.getWidth(), ip.getHeight());
+        ipDst.setPixels(ip.getPixels());
+        ipDst.resetMinAndMax();
+        return ipDst;
+    }
+
+    @Override
+    public Object getPixels(int n) {
+        return getProcessor(n).getPixels();
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n) {
+        // do nothing (the slices are computed from the source)
+    }
+
+    @Override
+    public int getSize() {
+        return stackSrc.getSize();
+    }
+
+    @Override
+    public int size() {
+        return getSize();
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        return stackSrc.getSliceLabel(n);
+    }
+
+    @Override
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        // do nothing (the number of slices is the same as the source)
+    }
+
+    /**
+     * stop the prefetch and release the cache.
+     */
+    public void dispose() {
+        pool.shutdownNow();
+        inflight.clear();
+
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    private ImageProcessor getProcessed(int n) {
+        ImageProcessor ip = getCache(n);
+
+        if(ip != null) {
+            return ip;
+        }
+
+        // wait only for the prefetch which is already running. a queued one would wait behind the others.
+        Future<ImageProcessor> future = inflight.get(n);
+
+        if(future != null && running.contains(n)) {
+            try {
+                return future.get();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException | CancellationException ex) {
+                // process it below
+            }
+        }
+        else if(future != null) {
+            future.cancel(false);
+            inflight.remove(n, future);
+        }
+
+        ip = process(n);
+        putCache(n, ip);
+        return ip;
+    }
+
+    private void prefetch(int n) {
+        // cancel the queued prefetches of the slices the user has left
+        for(Map.Entry<Integer, Future<ImageProcessor>> entry : inflight.entrySet()) {
+            int m = entry.getKey();
+
+            if(numPrefetch < Math.abs(m - n) && !running.contains(m)) {
+                entry.getValue().cancel(false);
+                inflight.remove(m, entry.getValue());
+            }
+        }
+
+        pool.purge();
+
+        for(int i = 1; i <= numPrefetch; i++) {
+            for(int m : new int[] { n + i, n - i }) {
+                if(1 <= m && m <= getSize() && getCache(m) == null) {
+                    try {
+                        submit(m);
+                    }
+                    catch(RejectedExecutionException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private Future<ImageProcessor> submit(int n) {
+        return inflight.computeIfAbsent(n, k -> pool.submit(() -> {
+            running.add(k);
+
+            try {
+                ImageProcessor ip = getCache(k);
+
+                if(ip == null) {
+                    ip = process(k);
+                    putCache(k, ip);
+                }
+
+                return ip;
+            }
+            finally {
+                running.remove(k);
+                inflight.remove(k);
+            }
+        }));
+    }
+
+    private ImageProcessor process(int n) {
+        ImageProcessor ipSrc;
+
+        // The source may be a virtual stack reading files.
+        synchronized(stackSrc) {
+            ipSrc = stackSrc.getProcessor(n).duplicate();
+        }
+
+        return OCV_FilterChain.apply(plugin, steps, ipSrc);
+    }
+
+    private ImageProcessor getCache(int n) {
+        synchronized(cache) {
+            return cache.get(n);
+        }
+    }
+
+    private void putCache(int n, ImageProcessor ip) {
+        synchronized(cache) {
+            cache.put(n, ip);
+
+            Iterator<Integer> it = cache.keySet().iterator();
+
+            while(maxSlices < cache.size() && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+}
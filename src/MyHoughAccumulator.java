@@ -0,0 +1,352 @@
+import ij.process.ShortProcessor;
+import java.util.Arrays;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Accumulator of the circle Hough transform (width x height x radii).
+ * There are three backends. create() selects one of them by the expected number of votes.
+ * <ul>
+ * <li>int : dense, never overflows.</li>
+ * <li>short : dense, half of the memory of int. The votes saturate at Short.MAX_VALUE instead of wrapping around.</li>
+ * <li>sparse : hash of the voted cells per row. The memory is proportional to the number of the voted cells.</li>
+ * </ul>
+ * add() may be called in parallel for different rows (radius and y), but not for the same row.
+ */
+public abstract class MyHoughAccumulator {
+    // constant var.
+    private static final int SPARSE_DENSITY = 8; // sparse if the cells are more than SPARSE_DENSITY times the expected votes
+
+    // var.
+    protected final int width;
+    protected final int height;
+    protected final int depth;
+
+    /**
+     * visitor of the cells.
+     */
+    public interface Cell {
+        /**
+         * @param x x in the ROI
+         * @param y y in the ROI
+         * @param indR index of the radius (radius - rmin)
+         * @param votes votes
+         */
+        void accept(int x, int y, int indR, int votes);
+    }
+
+    protected MyHoughAccumulator(int width, int height, int depth) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+    }
+
+    /**
+     * create the accumulator suited to the expected votes.
+     * @param width width of the ROI
+     * @param height height of the ROI
+     * @param depth number of the radii
+     * @param expectedVotes expected number of all votes
+     * @param maxVotesPerCell upper estimate of the votes of one cell
+     * @return accumulator
+     */
+    public static MyHoughAccumulator create(int width, int height, int depth, long expectedVotes, long maxVotesPerCell) {
+        long cells = (long)width * height * depth;
+
+        if(expectedVotes * SPARSE_DENSITY < cells || Integer.MAX_VALUE < cells) {
+            return new SparseAccumulator(width, height, depth);
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+
+        if(Short.MAX_VALUE < maxVotesPerCell && cells * 4 < free) {
+            return new IntAccumulator(width, height, depth, new int[(int)cells]);
+        }
+        else {
+            return new ShortAccumulator(width, height, depth, new short[(int)cells]);
+        }
+    }
+
+    /**
+     * wrap an array (width x height x depth) as a saturating short accumulator.
+     * @param arr array
+     * @param width width of the ROI
+     * @param height height of the ROI
+     * @param depth number of the radii
+     * @return accumulator
+     */
+    public static MyHoughAccumulator wrap(short[] arr, int width, int height, int depth) {
+        return new ShortAccumulator(width, height, depth, arr);
+    }
+
+    /**
+     * get the width of the ROI.
+     * @return width of the ROI
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * get the height of the ROI.
+     * @return height of the ROI
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * get the number of the radii.
+     * @return number of the radii
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * whether the cells are stored sparsely or not. A plane of a sparse accumulator is mostly empty and as large as the ROI.
+     * @return sparse or not
+     */
+    public boolean isSparse() {
+        return false;
+    }
+
+    /**
+     * add votes to the cell.
+     * @param indR index of the radius
+     * @param y y in the ROI
+     * @param x x in the ROI
+     * @param n votes
+     */
+    public abstract void add(int indR, int y, int x, int n);
+
+    /**
+     * get the votes of the cell.
+     * @param indR index of the radius
+     * @param y y in the ROI
+     * @param x x in the ROI
+     * @return votes
+     */
+    public abstract int get(int indR, int y, int x);
+
+    /**
+     * visit the cells with more votes than minVotes, in the order of the radius, y and x.
+     * @param minVotes threshold (exclusive)
+     * @param cell visitor
+     */
+    public abstract void forEach(int minVotes, Cell cell);
+
+    /**
+     * get a plane of a radius as an image (saturated at Short.MAX_VALUE).
+     * @param indR index of the radius
+     * @return ShortProcessor (width x height)
+     */
+    public ShortProcessor getPlane(int indR) {
+        ShortProcessor sp = new ShortProcessor(width, height);
+        short[] arr = (short[])sp.getPixels();
+
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                arr[y * width + x] = (short)Math.min(Short.MAX_VALUE, get(indR, y, x));
+            }
+        }
+
+        return sp;
+    }
+
+    // dense int
+    private static final class IntAccumulator extends MyHoughAccumulator {
+        private final int[] arr;
+
+        IntAccumulator(int width, int height, int depth, int[] arr) {
+            super(width, height, depth);
+            this.arr = arr;
+        }
+
+        @Override
+        public void add(int indR, int y, int x, int n) {
+            int i = (indR * height + y) * width + x;
+            arr[i] = (int)Math.min(Integer.MAX_VALUE, (long)arr[i] + n);
+        }
+
+        @Override
+        public int get(int indR, int y, int x) {
+            return arr[(indR * height + y) * width + x];
+        }
+
+        @Override
+        public void forEach(int minVotes, Cell cell) {
+            int plane = width * height;
+
+            for(int i = 0; i < arr.length; i++) {
+                if(minVotes < arr[i]) {
+                    cell.accept(i % width, i / width % height, i / plane, arr[i]);
+                }
+            }
+        }
+    }
+
+    // dense saturating short
+    private static final class ShortAccumulator extends MyHoughAccumulator {
+        private final short[] arr;
+
+        ShortAccumulator(int width, int height, int depth, short[] arr) {
+            super(width, height, depth);
+            this.arr = arr;
+        }
+
+        @Override
+        public void add(int indR, int y, int x, int n) {
+            int i = (indR * height + y) * width + x;
+            arr[i] = (short)Math.min(Short.MAX_VALUE, arr[i] + n);
+        }
+
+        @Override
+        public int get(int indR, int y, int x) {
+            return arr[(indR * height + y) * width + x];
+        }
+
+        @Override
+        public void forEach(int minVotes, Cell cell) {
+            int plane = width * height;
+
+            for(int i = 0; i < arr.length; i++) {
+                if(minVotes < arr[i]) {
+                    cell.accept(i % width, i / width % height, i / plane, arr[i]);
+                }
+            }
+        }
+    }
+
+    // open addressing hash of x per row (indR * height + y)
+    private static final class SparseAccumulator extends MyHoughAccumulator {
+        private final int[][] keys; // x + 1 (0 is empty)
+        private final int[][] counts;
+        private final int[] sizes;
+
+        SparseAccumulator(int width, int height, int depth) {
+            super(width, height, depth);
+            keys = new int[depth * height][];
+            counts = new int[depth * height][];
+            sizes = new int[depth * height];
+        }
+
+        @Override
+        public boolean isSparse() {
+            return true;
+        }
+
+        @Override
+        public void add(int indR, int y, int x, int n) {
+            int row = indR * height + y;
+
+            if(keys[row] == null) {
+                keys[row] = new int[8];
+                counts[row] = new int[8];
+            }
+
+            int i = find(keys[row], x);
+
+            if(keys[row][i] == 0) {
+                keys[row][i] = x + 1;
+                sizes[row]++;
+            }
+
+            counts[row][i] = (int)Math.min(Integer.MAX_VALUE, (long)counts[row][i] + n);
+
+            if(keys[row].length < sizes[row] * 2) {
+                rehash(row);
+            }
+        }
+
+        @Override
+        public int get(int indR, int y, int x) {
+            int row = indR * height + y;
+
+            if(keys[row] == null) {
+                return 0;
+            }
+
+            int i = find(keys[row], x);
+            return keys[row][i] == 0 ? 0 : counts[row][i];
+        }
+
+        @Override
+        public void forEach(int minVotes, Cell cell) {
+            for(int row = 0; row < keys.length; row++) {
+                if(keys[row] == null) {
+                    continue;
+                }
+
+                // (x << 32 | votes) sorted by x
+                long[] cells = new long[sizes[row]];
+                int num = 0;
+
+                for(int i = 0; i < keys[row].length; i++) {
+                    if(keys[row][i] != 0 && minVotes < counts[row][i]) {
+                        cells[num++] = ((long)(keys[row][i] - 1) << 32) | counts[row][i];
+                    }
+                }
+
+                Arrays.sort(cells, 0, num);
+
+                for(int i = 0; i < num; i++) {
+                    cell.accept((int)(cells[i] >>> 32), row % height, row / height, (int)cells[i]);
+                }
+            }
+        }
+
+        // slot of x, or the empty slot where x should be
+        private static int find(int[] k, int x) {
+            int mask = k.length - 1;
+            int i = (x * 0x9E3779B1) >>> 16 & mask;
+
+            while(k[i] != 0 && k[i] != x + 1) {
+                i = (i + 1) & mask;
+            }
+
+            return i;
+        }
+
+        private void rehash(int row) {
+            int[] k = keys[row];
+            int[] c = counts[row];
+            int[] nk = new int[k.length * 2];
+            int[] nc = new int[k.length * 2];
+
+            for(int i = 0; i < k.length; i++) {
+                if(k[i] != 0) {
+                    int j = find(nk, k[i] - 1);
+                    nk[j] = k[i];
+                    nc[j] = c[i];
+                }
+            }
+
+            keys[row] = nk;
+            counts[row] = nc;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Virtual stack of an uncompressed TIFF or raw file which is memory-mapped.
+ * A slice is read through the page cache of the OS, not from a stack in the heap.
+ * process() hands a slice to OpenCV as a Mat wrapping the mapped memory when the format allows it
+ * (8-bit, or little-endian 16-bit unsigned and 32-bit float on a little-endian machine). A read-only slice is copied natively into a pooled Mat.
+ * When the stack is writable, the slices written by setPixels() or process() are written back to the file.
+ * Consecutive slices are mapped together in windows of up to 1 GB, once per window, and a slice is a view of its window.
+ */
+public class MyMappedStack extends VirtualStack {
+    // constant var.
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    // var.
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int bitDepth;
+    private final int cvType;
+    private final int bytesPerPixel;
+    private final ByteOrder order;
+    private final boolean writable;
+    private final int[] windowOfSlice;
+    private final long[] windowOffsets;
+    private final long[] windowLengths;
+    private final MappedByteBuffer[] windows;
+
+    private MyMappedStack(FileInfo fi, long[] offsets, boolean writable) throws IOException {
+        super(fi.width, fi.height, offsets.length);
+
+        switch(fi.fileType) {
+            case FileInfo.GRAY8:
+                bitDepth = 8;
+                cvType = CvType.CV_8UC1;
+                bytesPerPixel = 1;
+                break;
+            case FileInfo.GRAY16_UNSIGNED:
+                bitDepth = 16;
+                cvType = CvType.CV_16UC1;
+                bytesPerPixel = 2;
+                break;
+            case FileInfo.GRAY32_FLOAT:
+                bitDepth = 32;
+                cvType = CvType.CV_32FC1;
+                bytesPerPixel = 4;
+                break;
+            default:
+                throw new IOException("Only 8-bit, 16-bit unsigned and 32-bit float are supported.");
+        }
+
+        this.file = new RandomAccessFile(new File(fi.directory, fi.fileName), writable ? "rw" : "r");
+        this.channel = file.getChannel();
+        this.offsets = offsets;
+        this.order = fi.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        this.writable = writable;
+
+        long end = offsets[offsets.length - 1] + getSliceBytes();
+
+        if(channel.size() < end) {
+            dispose();
+            throw new IOException("The file is shorter than the stack.");
+        }
+
+        // group the slices which follow each other in the file into windows
+        long sliceBytes = getSliceBytes();
+        long[] starts = new long[offsets.length];
+        long[] lengths = new long[offsets.length];
+        int num = 0;
+
+        this.windowOfSlice = new int[offsets.length];
+
+        for(int i = 0; i < offsets.length; i++) {
+            if(num == 0 || offsets[i] < starts[num - 1] || starts[num - 1] + WINDOW_BYTES < offsets[i] + sliceBytes) {
+                starts[num] = offsets[i];
+                num++;
+            }
+
+            lengths[num - 1] = Math.max(lengths[num - 1], offsets[i] + sliceBytes - starts[num - 1]);
+            windowOfSlice[i] = num - 1;
+        }
+
+        this.windowOffsets = Arrays.copyOf(starts, num);
+        this.windowLengths = Arrays.copyOf(lengths, num);
+        this.windows = new MappedByteBuffer[num];
+    }
+
+    /**
+     * open an uncompressed TIFF.
+     * @param path path of the file
+     * @param writable write the changes back to the file or not
+     * @return stack
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static MyMappedStack openTiff(String path, boolean writable) throws IOException {
+        File f = new File(path);
+        FileInfo[] info = new TiffDecoder(f.getParent() + File.separator, f.getName()).getTiffInfo();
+
+        if(info == null || info.length == 0) {
+            throw new IOException("Not a TIFF : " + path);
+        }
+
+        long[] offsets;
+
+        if(info.length == 1) {
+            // ImageJ stack (the slices are stored with a constant gap)
+            offsets = getOffsets(info[0]);
+        }
+        else {
+            offsets = new long[info.length];
+
+            for(int i = 0; i < info.length; i++) {
+                if(info[i].width != info[0].width || info[i].height != info[0].height || info[i].fileType != info[0].fileType) {
+                    throw new IOException("All pages must have the same size and type.");
+                }
+
+                offsets[i] = getOffset(info[i]);
+            }
+        }
+
+        return new MyMappedStack(info[0], offsets, writable);
+    }
+
+    /**
+     * open a raw file.
+     * @param fi width, height, nImages, offset, gapBetweenImages, fileType, intelByteOrder, directory and fileName
+     * @param writable write the changes back to the file or not
+     * @return stack
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static MyMappedStack openRaw(FileInfo fi, boolean writable) throws IOException {
+        return new MyMappedStack(fi, getOffsets(fi), writable);
+    }
+
+    private static long[] getOffsets(FileInfo fi) throws IOException {
+        long first = getOffset(fi);
+        long step = (long)fi.width * fi.height * fi.getBytesPerPixel() + fi.gapBetweenImages;
+        long[] offsets = new long[Math.max(1, fi.nImages)];
+
+        for(int i = 0; i < offsets.length; i++) {
+            offsets[i] = first + step * i;
+        }
+
+        return offsets;
+    }
+
+    // offset of the pixels which must be uncompressed and contiguous
+    private static long getOffset(FileInfo fi) throws IOException {
+        if(fi.compression > FileInfo.COMPRESSION_NONE) {
+            throw new IOException("Compressed TIFF is not supported.");
+        }
+
+        if(fi.stripOffsets != null && 1 < fi.stripOffsets.length) {
+            for(int i = 1; i < fi.stripOffsets.length; i++) {
+                if((fi.stripOffsets[i] & 0xffffffffL) != (fi.stripOffsets[i - 1] & 0xffffffffL) + (fi.stripLengths[i - 1] & 0xffffffffL)) {
+                    throw new IOException("The strips are not contiguous.");
+                }
+            }
+        }
+
+        return fi.getOffset();
+    }
+
+    /**
+     * whether process() wraps the mapped memory without converting in the heap or not.
+     * @return zero copy or not
+     */
+    public boolean isZeroCopy() {
+        return bitDepth == 8 || order == ByteOrder.nativeOrder();
+    }
+
+    /**
+     * whether the changes are written back to the file or not.
+     * @return writable or not
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * hand a slice to OpenCV.
+     * The Mat is valid only in op. If the stack is writable, the changes of the Mat are written back to the file.
+     * @param n slice number (1 - getSize())
+     * @param op operation
+     */
+    public void process(int n, Consumer<Mat> op) {
+        if(isZeroCopy()) {
+            MappedByteBuffer buf = map(n);
+            Mat mapped_mat = new Mat(getHeight(), getWidth(), cvType, buf);
+            Mat mat = mapped_mat;
+
+            try {
+                // The read-only mapping must not be written by op.
+                if(!writable) {
+                    mat = OCV__LoadLibrary.GetMat(getHeight(), getWidth(), cvType);
+                    mapped_mat.copyTo(mat);
+                }
+
+                op.accept(mat);
+            }
+            finally {
+                if(mat != mapped_mat) {
+                    OCV__LoadLibrary.ReturnMat(mat);
+                }
+
+                mapped_mat.release();
+                Reference.reachabilityFence(buf);
+            }
+        }
+        else {
+            Object pixels = getPixels(n);
+            Mat mat = OCV__LoadLibrary.GetMat(getHeight(), getWidth(), cvType);
+
+            try {
+                MyMatTiler.put(pixels, mat, getWidth(), getHeight());
+                op.accept(mat);
+
+                if(writable) {
+                    MyMatTiler.get(mat, pixels, getWidth(), getHeight());
+                    setPixels(pixels, n);
+                }
+            }
+            finally {
+                OCV__LoadLibrary.ReturnMat(mat);
+            }
+        }
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        ImageProcessor ip;
+
+        switch(bitDepth) {
+            case 8:
+                ip = new ByteProcessor(getWidth(), getHeight());
+                break;
+            case 16:
+                ip = new ShortProcessor(getWidth(), getHeight());
+                break;
+            default:
+                ip = new FloatProcessor(getWidth(), getHeight());
+                break;
+        }
+
+        ByteBuffer buf = map(n);
+
+        if(bitDepth == 8) {
+            buf.get((byte[])ip.getPixels());
+        }
+        else if(bitDepth == 16) {
+            buf.asShortBuffer().get((short[])ip.getPixels());
+        }
+        else {
+            buf.asFloatBuffer().get((float[])ip.getPixels());
+        }
+
+        ip.resetMinAndMax();
+        return ip;
+    }
+
+    @Override
+    public Object getPixels(int n) {
+        return getProcessor(n).getPixels();
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n) {
+        if(!writable) {
+            return;
+        }
+
+        ByteBuffer buf = map(n);
+
+        if(pixels instanceof byte[]) {
+            buf.put((byte[])pixels);
+        }
+        else if(pixels instanceof short[]) {
+            buf.asShortBuffer().put((short[])pixels);
+        }
+        else if(pixels instanceof float[]) {
+            buf.asFloatBuffer().put((float[])pixels);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return offsets.length;
+    }
+
+    @Override
+    public int size() {
+        return getSize();
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        return null;
+    }
+
+    @Override
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        // do nothing (the slices are in the file)
+    }
+
+    /**
+     * close the file. The mapped memory is released by GC.
+     */
+    public void dispose() {
+        if(windows != null) {
+            synchronized(windows) {
+                Arrays.fill(windows, null);
+            }
+        }
+
+        try {
+            file.close();
+        }
+        catch(IOException ex) {
+            // do nothing
+        }
+    }
+
+    private long getSliceBytes() {
+        return (long)getWidth() * getHeight() * bytesPerPixel;
+    }
+
+    // view of the slice in its window (the window is mapped on the first use)
+    private MappedByteBuffer map(int n) {
+        int w = windowOfSlice[n - 1];
+        MappedByteBuffer window;
+
+        synchronized(windows) {
+            window = windows[w];
+
+            if(window == null) {
+                try {
+                    window = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, windowOffsets[w], windowLengths[w]);
+                }
+                catch(IOException ex) {
+                    throw new IllegalStateException("Slice " + n + " cannot be mapped : " + ex.getMessage(), ex);
+                }
+
+                windows[w] = window;
+            }
+        }
+
+        MappedByteBuffer buf = window.slice((int)(offsets[n - 1] - windowOffsets[w]), (int)getSliceBytes());
+        buf.order(order);
+        return buf;
+    }
+}
@@ -0,0 +1,208 @@
+import ij.process.ImageProcessor;
+import java.lang.reflect.Array;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Tiled processing of large images.
+ * The image is split into tiles with a halo (overlap) border. Each tile is processed as an independent Mat, and only the core of each tile is written back.
+ * The halo is clipped at the image edges, so the border type of the filter is applied to the image edges as in the full frame processing.
+ * BORDER_WRAP is the exception: a tile wraps onto its own opposite edge instead of the image's, so such filters must not be tiled.
+ */
+public class MyMatTiler {
+    // static var.
+    private static int tileSize = 1024; // size of the core of a tile
+    private static long minPixels = 4096L * 4096L; // images larger than this are tiled
+
+    /**
+     * set the size of the core of a tile.
+     * @param size size (pixels)
+     */
+    public static void setTileSize(int size) {
+        tileSize = Math.max(64, size);
+    }
+
+    /**
+     * get the size of the core of a tile.
+     * @return size (pixels)
+     */
+    public static int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * set the number of pixels from which images are tiled.
+     * @param pixels number of pixels
+     */
+    public static void setMinPixels(long pixels) {
+        minPixels = pixels;
+    }
+
+    /**
+     * whether the image should be tiled or not.
+     * The image is also tiled when the Mats of the full frame (src and dst) do not fit in the budget of MyNativeMemory.
+     * @param ip ImageProcessor
+     * @return tiled or not
+     */
+    public static boolean isTiled(ImageProcessor ip) {
+        long pixels = (long)ip.getWidth() * ip.getHeight();
+        return minPixels <= pixels || !MyNativeMemory.fits(2 * pixels * CvType.ELEM_SIZE(cvType(ip)));
+    }
+
+    /**
+     * process the image tile by tile (in place).
+     * Tiles of a band are processed in parallel. The memory footprint is two bands of pixels and the Mats of the tiles being processed.
+     * @param plugin name of the plugin under which the Mats are reserved
+     * @param ip ImageProcessor (8-bit, 16-bit, RGB or 32-bit)
+     * @param halo width of the halo (radius of the kernel)
+     * @param op operation (src, dst). dst must have the same size as src.
+     */
+    public static void run(String plugin, ImageProcessor ip, int halo, BiConsumer<Mat, Mat> op) {
+        int imw = ip.getWidth();
+        int imh = ip.getHeight();
+        int type = cvType(ip);
+        Object pixels = ip.getPixels();
+        int tw = Math.max(tileSize, halo);
+        int th = Math.max(tileSize, halo);
+        int num_tx = (imw + tw - 1) / tw;
+        Object pending = null;
+        int pending_y = 0;
+        int pending_h = 0;
+
+        for(int y0 = 0; y0 < imh; y0 += th) {
+            final int band_y = y0;
+            final int band_h = Math.min(th, imh - y0);
+            final Object band = Array.newInstance(pixels.getClass().getComponentType(), imw * band_h);
+
+            IntStream.range(0, num_tx).parallel().forEach(i -> {
+                int x0 = i * tw;
+                processTile(plugin, pixels, band, imw, imh, x0, band_y, Math.min(tw, imw - x0), band_h, halo, type, op);
+            });
+
+            // The previous band can be written back after this band has read its halo.
+            if(pending != null) {
+                System.arraycopy(pending, 0, pixels, pending_y * imw, imw * pending_h);
+            }
+
+            pending = band;
+            pending_y = band_y;
+            pending_h = band_h;
+        }
+
+        if(pending != null) {
+            System.arraycopy(pending, 0, pixels, pending_y * imw, imw * pending_h);
+        }
+    }
+
+    private static void processTile(String plugin, Object pixels, Object band, int imw, int imh, int x0, int y0, int w, int h, int halo, int type, BiConsumer<Mat, Mat> op) {
+        // tile with halo (clipped at the image edges)
+        int rx0 = Math.max(0, x0 - halo);
+        int ry0 = Math.max(0, y0 - halo);
+        int rx1 = Math.min(imw, x0 + w + halo);
+        int ry1 = Math.min(imh, y0 + h + halo);
+        int rw = rx1 - rx0;
+        int rh = ry1 - ry0;
+        Object tile = Array.newInstance(pixels.getClass().getComponentType(), rw * rh);
+
+        for(int y = 0; y < rh; y++) {
+            System.arraycopy(pixels, (ry0 + y) * imw + rx0, tile, y * rw, rw);
+        }
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope(plugin)) {
+            Mat src_mat = scope.get(rh, rw, type);
+            Mat dst_mat = scope.get(rh, rw, type);
+
+            long t = MyPhaseTimer.start();
+            put(tile, src_mat, rw, rh);
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.TO_MAT, t);
+            op.accept(src_mat, dst_mat);
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.NATIVE, t);
+            get(dst_mat, tile, rw, rh);
+            MyPhaseTimer.lap(plugin, MyPhaseTimer.FROM_MAT, t);
+        }
+
+        // core
+        int cx = x0 - rx0;
+        int cy = y0 - ry0;
+
+        for(int y = 0; y < h; y++) {
+            System.arraycopy(tile, (cy + y) * rw + cx, band, y * imw + x0, w);
+        }
+    }
+
+    /**
+     * get the type of Mat for the ImageProcessor.
+     * @param ip ImageProcessor
+     * @return type of CvType
+     */
+    public static int cvType(ImageProcessor ip) {
+        switch(ip.getBitDepth()) {
+            case 8:
+                return CvType.CV_8UC1;
+            case 16:
+                return CvType.CV_16U;
+            case 24:
+                return CvType.CV_8UC3;
+            case 32:
+                return CvType.CV_32F;
+            default:
+                throw new IllegalArgumentException("Wrong image format");
+        }
+    }
+
+    static void put(Object arr, Mat mat, int w, int h) {
+        if(arr instanceof byte[]) {
+            mat.put(0, 0, (byte[])arr);
+        }
+        else if(arr instanceof short[]) {
+            mat.put(0, 0, (short[])arr);
+        }
+        else if(arr instanceof int[]) {
+            OCV__LoadLibrary.intarray2mat((int[])arr, mat, w, h);
+        }
+        else {
+            mat.put(0, 0, (float[])arr);
+        }
+    }
+
+    static void get(Mat mat, Object arr, int w, int h) {
+        if(arr instanceof byte[]) {
+            mat.get(0, 0, (byte[])arr);
+        }
+        else if(arr instanceof short[]) {
+            mat.get(0, 0, (short[])arr);
+        }
+        else if(arr instanceof int[]) {
+            OCV__LoadLibrary.mat2intarray(mat, (int[])arr, w, h);
+        }
+        else {
+            mat.get(0, 0, (float[])arr);
+        }
+    }
+}
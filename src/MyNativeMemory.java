@@ -0,0 +1,255 @@
+import ij.Prefs;
+import ij.measure.ResultsTable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Budget of the native memory of the Mats allocated by the plugins.
+ * The plugins reserve the bytes of their Mats before allocating them. When the limit would be exceeded, the Mat pool and the caches are released first. If it is still exceeded, the reservation fails with BudgetExceededException instead of letting the process be killed by the OS.
+ * The Mats in the pool and the caches are counted as well. Mats allocated inside OpenCV (e.g. the outputs of empty Mats) are not counted.
+ */
+public final class MyNativeMemory {
+    // constant var.
+    private static final String PREFS_LIMIT_MB = "IJToolsUsingOpenCV.nativeLimitMB";
+    private static final long MB = 1024L * 1024L;
+
+    // static var.
+    private static final Object lock = new Object();
+    private static final ConcurrentHashMap<String, Usage> usages = new ConcurrentHashMap<>();
+    private static volatile long limit = Math.max(0, (long)Prefs.get(PREFS_LIMIT_MB, 0)) * MB;
+    private static long reserved = 0;
+    private static long peak = 0;
+    private static long evictions = 0;
+
+    private MyNativeMemory() {
+    }
+
+    /**
+     * set the limit of the native memory (saved in IJ_Prefs.txt).
+     * @param mb limit (MB, 0 is unlimited)
+     */
+    public static void setLimitMB(long mb) {
+        mb = Math.max(0, mb);
+        Prefs.set(PREFS_LIMIT_MB, mb);
+        limit = mb * MB;
+    }
+
+    /**
+     * get the limit of the native memory.
+     * @return limit (MB, 0 is unlimited)
+     */
+    public static long getLimitMB() {
+        return limit / MB;
+    }
+
+    /**
+     * get the bytes in use (reserved by the plugins, in the Mat pool and in the caches).
+     * @return bytes
+     */
+    public static long getUsedBytes() {
+        synchronized(lock) {
+            return usedInternal();
+        }
+    }
+
+    /**
+     * get the peak of the bytes reserved by the plugins.
+     * @return bytes
+     */
+    public static long getPeakBytes() {
+        synchronized(lock) {
+            return peak;
+        }
+    }
+
+    /**
+     * whether the bytes can be reserved or not.
+     * The Mat pool and the caches are counted as free, because reserve() releases them if needed. Nothing is released or reserved.
+     * @param bytes bytes
+     * @return fits or not
+     */
+    public static boolean fits(long bytes) {
+        if(limit == 0) {
+            return true;
+        }
+
+        synchronized(lock) {
+            return reserved + bytes <= limit;
+        }
+    }
+
+    /**
+     * reserve the bytes for the plugin.
+     * Close the returned reservation when the Mats are released.
+     * @param plugin name of the plugin
+     * @param bytes bytes
+     * @return reservation
+     * @throws BudgetExceededException the limit would be exceeded even after the Mat pool and the caches are released
+     */
+    public static Reservation reserve(String plugin, long bytes) {
+        Usage usage = usages.computeIfAbsent(plugin, k -> new Usage());
+
+        synchronized(lock) {
+            if(limit != 0 && !makeRoom(bytes)) {
+                usage.failures++;
+                throw new BudgetExceededException(plugin, bytes, usedInternal(), limit);
+            }
+
+            reserved += bytes;
+            peak = Math.max(peak, reserved);
+            usage.current += bytes;
+            usage.peak = Math.max(usage.peak, usage.current);
+            usage.count++;
+        }
+
+        return new Reservation(usage, bytes);
+    }
+
+    /**
+     * reset the peaks and the counters.
+     */
+    public static void reset() {
+        synchronized(lock) {
+            peak = reserved;
+            evictions = 0;
+
+            for(Usage usage : usages.values()) {
+                usage.peak = usage.current;
+                usage.count = 0;
+                usage.failures = 0;
+            }
+        }
+    }
+
+    /**
+     * get the usage as a table.
+     * @return ResultsTable (Plugin, Current(MB), Peak(MB), Reservations, Failures). The last row is the total with Evictions and Limit(MB).
+     */
+    public static ResultsTable getTable() {
+        ResultsTable rt = new ResultsTable();
+
+        synchronized(lock) {
+            for(Map.Entry<String, Usage> ent : new TreeMap<>(usages).entrySet()) {
+                Usage usage = ent.getValue();
+                addRow(rt, ent.getKey(), usage.current, usage.peak, usage.count, usage.failures);
+            }
+
+            addRow(rt, "(Mat pool)", OCV__LoadLibrary.getMatPoolBytes(), Double.NaN, 0, 0);
+            addRow(rt, "(Mat cache)", OCV__LoadLibrary.getMatCacheBytes(), Double.NaN, 0, 0);
+            addRow(rt, "(result cache)", MyResultCache.getBytes(), Double.NaN, 0, 0);
+            addRow(rt, "(total)", usedInternal(), peak, 0, 0);
+            rt.addValue("Evictions", evictions);
+            rt.addValue("Limit(MB)", limit / MB);
+        }
+
+        return rt;
+    }
+
+    private static void addRow(ResultsTable rt, String plugin, double current, double peak_bytes, long count, long failures) {
+        rt.incrementCounter();
+        rt.addValue("Plugin", plugin);
+        rt.addValue("Current(MB)", current / MB);
+        rt.addValue("Peak(MB)", peak_bytes / MB);
+        rt.addValue("Reservations", count);
+        rt.addValue("Failures", failures);
+    }
+
+    private static long usedInternal() {
+        return reserved + OCV__LoadLibrary.getMatPoolBytes() + OCV__LoadLibrary.getMatCacheBytes() + MyResultCache.getBytes();
+    }
+
+    // release the pool and the caches until the bytes fit
+    private static boolean makeRoom(long bytes) {
+        if(usedInternal() + bytes <= limit) {
+            return true;
+        }
+
+        if(reserved + bytes <= limit) {
+            OCV__LoadLibrary.ClearMatPool();
+
+            if(limit < usedInternal() + bytes) {
+                MyResultCache.evictAll();
+            }
+
+            if(limit < usedInternal() + bytes) {
+                OCV__LoadLibrary.EvictMatCache();
+            }
+
+            evictions++;
+        }
+
+        return usedInternal() + bytes <= limit;
+    }
+
+    private static void release(Usage usage, long bytes) {
+        synchronized(lock) {
+            reserved -= bytes;
+            usage.current -= bytes;
+        }
+    }
+
+    /**
+     * reserved bytes. close() returns the bytes to the budget.
+     */
+    public static final class Reservation implements AutoCloseable {
+        private final Usage usage;
+        private long bytes;
+
+        private Reservation(Usage usage, long bytes) {
+            this.usage = usage;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if(bytes != 0) {
+                release(usage, bytes);
+                bytes = 0;
+            }
+        }
+    }
+
+    /**
+     * thrown when the reservation exceeds the limit.
+     */
+    public static class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String plugin, long bytes, long used, long limit) {
+            super(String.format("%s needs %.1f MB of native memory, but %.1f MB of %.1f MB is in use. Raise native_memory_limit_mb in OCV__Settings or process a smaller image.", plugin, (double)bytes / MB, (double)used / MB, (double)limit / MB));
+        }
+    }
+
+    // usage of a plugin (guarded by lock)
+    private static class Usage {
+        long current;
+        long peak;
+        long count;
+        long failures;
+    }
+}
@@ -0,0 +1,170 @@
+import ij.measure.ResultsTable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Per-phase latency of the plugins.
+ * The phases are the copy to Mat, the native call, the copy from Mat and the output of the results.
+ * Every plugin which uses an OCV__LoadLibrary.MatScope records Total, the time from the creation to the close of the scope (a frame, a slice, a tile or a preview region).
+ * The copies are split out by the shared paths (GetCachedMat(), MyMatTiler and MyPreview) and by the plugins which call lap() themselves.
+ * When it is disabled, start() and lap() only read a flag.
+ */
+public class MyPhaseTimer {
+    // constant var.
+    public static final String TO_MAT = "ToMat";
+    public static final String NATIVE = "Native";
+    public static final String FROM_MAT = "FromMat";
+    public static final String RESULTS = "Results";
+    public static final String TOTAL = "Total";
+
+    private static final int NUM_BINS = 48; // log2 bins of nanoseconds
+
+    // static var.
+    private static volatile boolean enabled = false;
+    private static final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<>();
+
+    /**
+     * enable or disable the measurement.
+     * @param en enable or not
+     */
+    public static void setEnabled(boolean en) {
+        enabled = en;
+    }
+
+    /**
+     * whether the measurement is enabled or not.
+     * @return enabled or not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * start the measurement.
+     * @return the current time (ns), or 0 when disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * record the time from t0 as the phase of the plugin.
+     * @param plugin name of the plugin
+     * @param phase name of the phase
+     * @param t0 time got by start() or lap()
+     * @return the current time (ns), or 0 when disabled
+     */
+    public static long lap(String plugin, String phase, long t0) {
+        if(!enabled || t0 == 0) {
+            return 0;
+        }
+
+        long t1 = System.nanoTime();
+        stats.computeIfAbsent(plugin + "\t" + phase, k -> new Stat()).add(t1 - t0);
+        return t1;
+    }
+
+    /**
+     * clear the recorded times.
+     */
+    public static void reset() {
+        stats.clear();
+    }
+
+    /**
+     * get the recorded times as a table.
+     * @return ResultsTable (Plugin, Phase, Count, Total(ms), Mean(ms), Max(ms), P50(ms), P90(ms), P99(ms))
+     */
+    public static ResultsTable getTable() {
+        ResultsTable rt = new ResultsTable();
+        TreeMap<String, Stat> sorted = new TreeMap<>(stats);
+
+        for(Map.Entry<String, Stat> ent : sorted.entrySet()) {
+            String[] keys = ent.getKey().split("\t");
+            Stat st = ent.getValue();
+            long cnt = st.count.sum();
+
+            if(cnt == 0) {
+                continue;
+            }
+
+            rt.incrementCounter();
+            rt.addValue("Plugin", keys[0]);
+            rt.addValue("Phase", keys[1]);
+            rt.addValue("Count", cnt);
+            rt.addValue("Total(ms)", st.sum.sum() / 1e6);
+            rt.addValue("Mean(ms)", st.sum.sum() / 1e6 / cnt);
+            rt.addValue("Max(ms)", st.max.get() / 1e6);
+            rt.addValue("P50(ms)", st.percentile(0.5) / 1e6);
+            rt.addValue("P90(ms)", st.percentile(0.9) / 1e6);
+            rt.addValue("P99(ms)", st.percentile(0.99) / 1e6);
+        }
+
+        return rt;
+    }
+
+    // statistics of a phase
+    private static class Stat {
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+        final AtomicLongArray bins = new AtomicLongArray(NUM_BINS);
+
+        void add(long ns) {
+            count.increment();
+            sum.add(ns);
+            max.accumulateAndGet(ns, Math::max);
+            bins.incrementAndGet(Math.min(NUM_BINS - 1, 64 - Long.numberOfLeadingZeros(ns)));
+        }
+
+        // upper bound of the bin including the percentile
+        double percentile(double p) {
+            long total = 0;
+
+            for(int i = 0; i < NUM_BINS; i++) {
+                total += bins.get(i);
+            }
+
+            long rank = (long)Math.ceil(p * total);
+            long acc = 0;
+
+            for(int i = 0; i < NUM_BINS; i++) {
+                acc += bins.get(i);
+
+                if(rank <= acc) {
+                    return Math.min((double)(1L << i), (double)max.get());
+                }
+            }
+
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Preview of ExtendedPlugInFilter limited to the visible region of the image.
+ * While the dialog is shown, only the source rectangle of the canvas (and the halo of the kernel) is processed, optionally at a reduced resolution.
+ * A preview request that has been superseded by a newer one is dropped without writing back.
+ * The final processing always covers the whole image because the preview is not kept when it was partial.
+ * A region wraps onto its own opposite edge, so filters with BORDER_WRAP must skip this preview.
+ */
+public class MyPreview {
+    // constant var.
+    private static final String PREFS_VISIBLE_ONLY = "IJToolsUsingOpenCV.previewVisibleOnly";
+    private static final String PREFS_SCALE = "IJToolsUsingOpenCV.previewScale";
+    private static final double MIN_SCALE = 0.1;
+
+    /**
+     * operation of the preview.
+     */
+    public interface Op {
+        /**
+         * @param src source
+         * @param dst destination (the same size as src)
+         * @param scale resolution of src relative to the image (0 < scale <= 1). sizes of the kernel should be multiplied by this.
+         */
+        void apply(Mat src, Mat dst, double scale);
+    }
+
+    // var.
+    private ImagePlus imp = null;
+    private volatile boolean active = false;
+    private volatile boolean lastPartial = false;
+    private final AtomicLong generation = new AtomicLong();
+    private final String plugin;
+
+    /**
+     * @param plugin name of the plugin under which the Mats are reserved
+     */
+    public MyPreview(String plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * whether the preview is limited to the visible region or not.
+     * @return limited or not
+     */
+    public static boolean isVisibleOnly() {
+        return Prefs.get(PREFS_VISIBLE_ONLY, true);
+    }
+
+    /**
+     * set whether the preview is limited to the visible region or not.
+     * @param enable limited or not
+     */
+    public static void setVisibleOnly(boolean enable) {
+        Prefs.set(PREFS_VISIBLE_ONLY, enable);
+    }
+
+    /**
+     * get the resolution of the preview.
+     * @return scale (0.1 - 1.0)
+     */
+    public static double getScale() {
+        return Math.min(1.0, Math.max(MIN_SCALE, Prefs.get(PREFS_SCALE, 1.0)));
+    }
+
+    /**
+     * set the resolution of the preview.
+     * @param scale scale (0.1 - 1.0)
+     */
+    public static void setScale(double scale) {
+        Prefs.set(PREFS_SCALE, Math.min(1.0, Math.max(MIN_SCALE, scale)));
+    }
+
+    /**
+     * start the preview. call before GenericDialog.showDialog().
+     * @param imp ImagePlus
+     */
+    public void start(ImagePlus imp) {
+        this.imp = imp;
+        lastPartial = false;
+        active = true;
+    }
+
+    /**
+     * stop the preview. call after GenericDialog.showDialog().
+     * @param flags flags of the plugin
+     * @return flags without KEEP_PREVIEW if the last preview was partial
+     */
+    public int stop(int flags) {
+        active = false;
+        generation.incrementAndGet();
+        return lastPartial ? flags & ~ExtendedPlugInFilter.KEEP_PREVIEW : flags;
+    }
+
+    /**
+     * process the preview.
+     * @param ip ImageProcessor
+     * @param halo width of the halo (radius of the kernel)
+     * @param op operation
+     * @return true if processed (or dropped) as the preview, false if the whole image should be processed as usual.
+     */
+    public boolean run(ImageProcessor ip, int halo, Op op) {
+        if(!active) {
+            return false;
+        }
+
+        int imw = ip.getWidth();
+        int imh = ip.getHeight();
+        Rectangle vis = getVisibleRect(imw, imh);
+        double scale = getScale();
+
+        if(vis.width == imw && vis.height == imh && scale == 1.0) {
+            lastPartial = false;
+            return false;
+        }
+
+        long gen = generation.incrementAndGet();
+        lastPartial = true;
+
+        // visible region with halo (clipped at the image edges)
+        int rx0 = Math.max(0, vis.x - halo);
+        int ry0 = Math.max(0, vis.y - halo);
+        int rw = Math.min(imw, vis.x + vis.width + halo) - rx0;
+        int rh = Math.min(imh, vis.y + vis.height + halo) - ry0;
+        Object pixels = ip.getPixels();
+        Object region = Array.newInstance(pixels.getClass().getComponentType(), rw * rh);
+
+        for(int y = 0; y < rh; y++) {
+            System.arraycopy(pixels, (ry0 + y) * imw + rx0, region, y * rw, rw);
+        }
+
+        int type = MyMatTiler.cvType(ip);
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope(plugin)) {
+            Mat src_mat = scope.get(rh, rw, type);
+            Mat dst_mat = scope.get(rh, rw, type);
+
+            long t = MyPhaseTimer.start();
+            MyMatTiler.put(region, src_mat, rw, rh);
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.TO_MAT, t);
+
+            int sw = (int)Math.round(rw * scale);
+            int sh = (int)Math.round(rh * scale);
+
+            if(scale < 1.0 && 1 < sw && 1 < sh) {
+                Mat small_src = scope.get(sh, sw, type);
+                Mat small_dst = scope.get(sh, sw, type);
+
+                Imgproc.resize(src_mat, small_src, small_src.size(), 0, 0, Imgproc.INTER_AREA);
+                op.apply(small_src, small_dst, (double)sw / rw);
+                Imgproc.resize(small_dst, dst_mat, dst_mat.size(), 0, 0, Imgproc.INTER_LINEAR);
+            }
+            else {
+                op.apply(src_mat, dst_mat, 1.0);
+            }
+
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.NATIVE, t);
+
+            if(isStale(gen)) {
+                return true;
+            }
+
+            MyMatTiler.get(dst_mat, region, rw, rh);
+            MyPhaseTimer.lap(plugin, MyPhaseTimer.FROM_MAT, t);
+        }
+
+        if(isStale(gen)) {
+            return true;
+        }
+
+        // visible region only
+        int cx = vis.x - rx0;
+        int cy = vis.y - ry0;
+
+        for(int y = 0; y < vis.height; y++) {
+            System.arraycopy(region, (cy + y) * rw + cx, pixels, (vis.y + y) * imw + vis.x, vis.width);
+        }
+
+        return true;
+    }
+
+    /**
+     * scale the odd size of a kernel.
+     * @param ksize size of the kernel (odd)
+     * @param scale scale
+     * @param min minimum size (odd)
+     * @return scaled size (odd)
+     */
+    public static int scaleOdd(int ksize, double scale, int min) {
+        if(scale == 1.0) {
+            return ksize;
+        }
+
+        int s = (int)Math.round(ksize * scale);
+        s = s % 2 == 0 ? s + 1 : s;
+
+        return Math.min(ksize, Math.max(min, s));
+    }
+
+    /**
+     * scale the odd size of a kernel.
+     * @param ksize size of the kernel (odd)
+     * @param scale scale
+     * @return scaled size (odd)
+     */
+    public static Size scaleOdd(Size ksize, double scale) {
+        if(scale == 1.0) {
+            return ksize;
+        }
+
+        return new Size(scaleOdd((int)ksize.width, scale, 1), scaleOdd((int)ksize.height, scale, 1));
+    }
+
+    private boolean isStale(long gen) {
+        return gen != generation.get() || Thread.currentThread().isInterrupted();
+    }
+
+    private Rectangle getVisibleRect(int imw, int imh) {
+        Rectangle full = new Rectangle(0, 0, imw, imh);
+
+        if(!isVisibleOnly() || imp == null || imp.getCanvas() == null) {
+            return full;
+        }
+
+        Rectangle vis = imp.getCanvas().getSrcRect().intersection(full);
+
+        return vis.isEmpty() ? full : vis;
+    }
+}
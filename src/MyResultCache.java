@@ -0,0 +1,396 @@
+import ij.process.ImageProcessor;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.opencv.core.Mat;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Cache of the results of analysis plugins (opt-in).
+ * The key is the class of the plugin, the values of its static (non-final) fields, and a hash of the contents of the inputs.
+ * The values are Mats, arrays or immutable objects. They are copied in and out, so the caller owns what it gets.
+ * The cache is bounded by the bytes of the stored Mats and arrays, and the least recently used entries are evicted.
+ */
+public final class MyResultCache {
+    // constant var.
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    // static var.
+    private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static boolean enabled = false;
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long bytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    private MyResultCache() {
+    }
+
+    /**
+     * enable or disable the cache.
+     * @param en enable or not
+     */
+    public static void setEnabled(boolean en) {
+        synchronized(cache) {
+            enabled = en;
+
+            if(!en) {
+                clearInternal();
+            }
+        }
+    }
+
+    /**
+     * whether the cache is enabled or not.
+     * @return enabled or not
+     */
+    public static boolean isEnabled() {
+        synchronized(cache) {
+            return enabled;
+        }
+    }
+
+    /**
+     * set the max bytes of the cache.
+     * @param max bytes
+     */
+    public static void setMaxBytes(long max) {
+        synchronized(cache) {
+            maxBytes = Math.max(0, max);
+            evict();
+        }
+    }
+
+    /**
+     * release all entries and reset the counters.
+     */
+    public static void clear() {
+        synchronized(cache) {
+            clearInternal();
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    /**
+     * release all entries (the counters are kept).
+     */
+    public static void evictAll() {
+        synchronized(cache) {
+            clearInternal();
+        }
+    }
+
+    /**
+     * get the bytes of the stored results.
+     * @return bytes
+     */
+    public static long getBytes() {
+        synchronized(cache) {
+            return bytes;
+        }
+    }
+
+    /**
+     * get the number of cache hits.
+     * @return hits
+     */
+    public static long getHits() {
+        synchronized(cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * get the number of cache misses.
+     * @return misses
+     */
+    public static long getMisses() {
+        synchronized(cache) {
+            return misses;
+        }
+    }
+
+    /**
+     * make the key of the results.
+     * @param plugin plugin (the values of its static fields are a part of the key)
+     * @param inputs ImageProcessors, arrays of pixels or other values (toString())
+     * @return key, or null if the cache is disabled
+     */
+    public static String key(Object plugin, Object... inputs) {
+        if(!isEnabled()) {
+            return null;
+        }
+
+        Class<?> cls = plugin.getClass();
+        Field[] fields = cls.getDeclaredFields();
+        StringBuilder sb = new StringBuilder(cls.getName());
+
+        Arrays.sort(fields, (a, b) -> a.getName().compareTo(b.getName()));
+
+        for(Field f : fields) {
+            int mod = f.getModifiers();
+
+            if(!Modifier.isStatic(mod) || Modifier.isFinal(mod)) {
+                continue;
+            }
+
+            try {
+                f.setAccessible(true);
+                Object value = f.get(null);
+                sb.append('|').append(f.getName()).append('=');
+                sb.append(value instanceof Object[] ? Arrays.deepToString((Object[])value) : String.valueOf(value));
+            }
+            catch(ReflectiveOperationException | RuntimeException ex) {
+                sb.append('|').append(f.getName()).append("=?");
+            }
+        }
+
+        for(Object input : inputs) {
+            sb.append('|');
+
+            if(input instanceof ImageProcessor) {
+                ImageProcessor ip = (ImageProcessor)input;
+                sb.append(ip.getWidth()).append('x').append(ip.getHeight()).append(':').append(Long.toHexString(hash(ip.getPixels())));
+            }
+            else if(input != null && input.getClass().isArray()) {
+                sb.append(Long.toHexString(hash(input)));
+            }
+            else {
+                sb.append(input);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * get a copy of the results.
+     * @param key key (null is a miss)
+     * @return copy of the values (Mats are new Mats owned by the caller), or null
+     */
+    public static Object[] get(String key) {
+        if(key == null) {
+            return null;
+        }
+
+        synchronized(cache) {
+            Entry entry = cache.get(key);
+
+            if(entry == null) {
+                misses++;
+                return null;
+            }
+
+            hits++;
+            return copy(entry.values);
+        }
+    }
+
+    /**
+     * store a copy of the results.
+     * @param key key (null is ignored)
+     * @param values Mats, arrays or immutable objects
+     */
+    public static void put(String key, Object... values) {
+        if(key == null) {
+            return;
+        }
+
+        Object[] copied = copy(values);
+        long size = sizeOf(copied);
+
+        synchronized(cache) {
+            if(!enabled || maxBytes < size) {
+                release(copied);
+                return;
+            }
+
+            Entry old = cache.put(key, new Entry(copied, size));
+            bytes += size;
+
+            if(old != null) {
+                bytes -= old.bytes;
+                release(old.values);
+            }
+
+            evict();
+        }
+    }
+
+    private static void evict() {
+        Iterator<Entry> it = cache.values().iterator();
+
+        while(maxBytes < bytes && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            bytes -= entry.bytes;
+            release(entry.values);
+        }
+    }
+
+    private static void clearInternal() {
+        for(Entry entry : cache.values()) {
+            release(entry.values);
+        }
+
+        cache.clear();
+        bytes = 0;
+    }
+
+    private static Object[] copy(Object[] values) {
+        Object[] dst = new Object[values.length];
+
+        for(int i = 0; i < values.length; i++) {
+            Object v = values[i];
+
+            if(v instanceof Mat) {
+                dst[i] = ((Mat)v).clone();
+            }
+            else if(v instanceof byte[]) {
+                dst[i] = ((byte[])v).clone();
+            }
+            else if(v instanceof short[]) {
+                dst[i] = ((short[])v).clone();
+            }
+            else if(v instanceof int[]) {
+                dst[i] = ((int[])v).clone();
+            }
+            else if(v instanceof float[]) {
+                dst[i] = ((float[])v).clone();
+            }
+            else if(v instanceof double[]) {
+                dst[i] = ((double[])v).clone();
+            }
+            else {
+                dst[i] = v;
+            }
+        }
+
+        return dst;
+    }
+
+    private static void release(Object[] values) {
+        for(Object v : values) {
+            if(v instanceof Mat) {
+                ((Mat)v).release();
+            }
+        }
+    }
+
+    private static long sizeOf(Object[] values) {
+        long size = 0;
+
+        for(Object v : values) {
+            if(v instanceof Mat) {
+                size += ((Mat)v).total() * ((Mat)v).elemSize();
+            }
+            else if(v instanceof byte[]) {
+                size += ((byte[])v).length;
+            }
+            else if(v instanceof short[]) {
+                size += ((short[])v).length * 2L;
+            }
+            else if(v instanceof int[] || v instanceof float[]) {
+                size += Array.getLength(v) * 4L;
+            }
+            else if(v instanceof double[]) {
+                size += ((double[])v).length * 8L;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * 64-bit hash of the content of an array.
+     * byte[] is read 8 bytes at a time.
+     * @param arr byte[], short[], int[], float[] or double[]
+     * @return hash
+     */
+    public static long hash(Object arr) {
+        long h = PRIME ^ Array.getLength(arr);
+
+        if(arr instanceof byte[]) {
+            byte[] a = (byte[])arr;
+            int i = 0;
+
+            for(; i + 8 <= a.length; i += 8) {
+                h = mix(h, (long)LONGS.get(a, i));
+            }
+
+            for(; i < a.length; i++) {
+                h = mix(h, a[i]);
+            }
+        }
+        else if(arr instanceof short[]) {
+            for(short v : (short[])arr) {
+                h = mix(h, v);
+            }
+        }
+        else if(arr instanceof int[]) {
+            for(int v : (int[])arr) {
+                h = mix(h, v);
+            }
+        }
+        else if(arr instanceof float[]) {
+            for(float v : (float[])arr) {
+                h = mix(h, Float.floatToRawIntBits(v));
+            }
+        }
+        else if(arr instanceof double[]) {
+            for(double v : (double[])arr) {
+                h = mix(h, Double.doubleToRawLongBits(v));
+            }
+        }
+
+        return h ^ (h >>> 32);
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * PRIME;
+        return h ^ (h >>> 29);
+    }
+
+    // stored results
+    private static class Entry {
+        final Object[] values;
+        final long bytes;
+
+        Entry(Object[] values, long bytes) {
+            this.values = values;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Macro;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Apply an OCV_* or WK_* filter to open images in parallel.
+ * The dialog of the filter is shown once (or filled with the macro options) for the first image. The other images are processed by copies of the configured filter, so the static parameters and the parameters derived from them are the same for all images.
+ * When the slices are processed, the dialog is shown for the first stack instead, and whether all the slices are processed follows the flags returned by the dialog (e.g. the answer to IJ.setupDialog()).
+ * Each image is processed by one worker with its own Mats. The time of each image is shown in the "ApplyToAll" table.
+ * The ROI is ignored, and the whole image (or stack) is processed.
+ * Only image-to-image filters are accepted. Filters which use the Results table or the ROI Manager are rejected, because these are shared by all workers and are not thread-safe.
+ */
+public class OCUtil_ApplyToAll implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+
+    // static var.
+    private static String plugin = "OCV_GaussianBlur";
+    private static String options = "";
+    private static String windowIds = "";
+    private static int numWorkers = Runtime.getRuntime().availableProcessors();
+    private static boolean enStacks = false;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addStringField("plugin", plugin, 24);
+        gd.addStringField("options", options, 40);
+        gd.addStringField("window_ids", windowIds, 24);
+        gd.addNumericField("num_workers", numWorkers, 0);
+        gd.addCheckbox("process_all_slices", enStacks);
+        gd.addMessage("options : empty shows the dialog of the plugin once, otherwise the macro options (e.g. ksize_x=5 ksize_y=5).\nwindow_ids : empty is all open images, otherwise IDs of WindowManager.getIDList() (e.g. -2 -5).");
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            plugin = gd.getNextString().trim();
+            options = gd.getNextString().trim();
+            windowIds = gd.getNextString().trim();
+            numWorkers = (int)gd.getNextNumber();
+            enStacks = gd.getNextBoolean();
+
+            if(!plugin.startsWith("OCV_") && !plugin.startsWith("WK_")) {
+                IJ.error("plugin should be OCV_* or WK_*.");
+                return DONE;
+            }
+
+            if(numWorkers < 1) {
+                IJ.error("'1 <= num_workers' is necessary.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        try {
+            List<ImagePlus> imps = getImages(windowIds);
+
+            if(imps.isEmpty()) {
+                IJ.noImage();
+                return;
+            }
+
+            long t0 = System.nanoTime();
+            ResultsTable rt = applyToAll(plugin, options, imps, numWorkers, enStacks);
+            rt.show("ApplyToAll");
+            IJ.log("OCUtil_ApplyToAll : " + plugin + ", " + imps.size() + " images, " + String.format("%.1f", (System.nanoTime() - t0) / 1e6) + " ms");
+        }
+        catch(IllegalArgumentException ex) {
+            IJ.error(ex.getMessage());
+        }
+    }
+
+    /**
+     * get the images.
+     * @param ids IDs separated by spaces or commas (empty is all open images)
+     * @return images
+     * @throws IllegalArgumentException if an ID is wrong.
+     */
+    public static List<ImagePlus> getImages(String ids) {
+        List<ImagePlus> imps = new ArrayList<>();
+
+        if(ids.isEmpty()) {
+            int[] list = WindowManager.getIDList();
+
+            if(list != null) {
+                for(int id : list) {
+                    imps.add(WindowManager.getImage(id));
+                }
+            }
+
+            return imps;
+        }
+
+        for(String str : ids.split("[\\s,]+")) {
+            if(str.isEmpty()) {
+                continue;
+            }
+
+            ImagePlus imp;
+
+            try {
+                imp = WindowManager.getImage(Integer.parseInt(str));
+            }
+            catch(NumberFormatException ex) {
+                imp = null;
+            }
+
+            if(imp == null) {
+                throw new IllegalArgumentException("window_ids : " + str + " is not an image.");
+            }
+
+            imps.add(imp);
+        }
+
+        return imps;
+    }
+
+    /**
+     * apply the filter to the images in parallel.
+     * @param plugin class name of the filter (OCV_* or WK_*)
+     * @param options macro options (empty shows the dialog for the first image)
+     * @param imps images
+     * @param workers number of workers
+     * @param stacks process all slices or not (if the filter also returns DOES_STACKS)
+     * @return ResultsTable (Title, ID, Slices, Time(ms), Status). one row for each image.
+     * @throws IllegalArgumentException if the plugin is wrong or uses the Results table or the ROI Manager.
+     */
+    public static ResultsTable applyToAll(String plugin, String options, List<ImagePlus> imps, int workers, boolean stacks) {
+        PlugInFilter proto = newFilter(plugin);
+        ImagePlus impFirst = stacks ? imps.stream().filter(imp -> imp.getStackSize() > 1).findFirst().orElse(imps.get(0)) : imps.get(0);
+        ResultsTable rt = new ResultsTable();
+
+        // configure the prototype by the dialog (or the macro options)
+        int flagsProto = proto.setup("", impFirst);
+
+        if((flagsProto & DONE) != 0) {
+            return rt;
+        }
+
+        if(proto instanceof ExtendedPlugInFilter) {
+            Thread thread = Thread.currentThread();
+            String optionsOld = Macro.getOptions();
+
+            Macro.setOptions(thread, options.isEmpty() ? null : options);
+
+            try {
+                // as PlugInFilterRunner, the flags returned by the dialog replace those of setup()
+                flagsProto = ((ExtendedPlugInFilter)proto).showDialog(impFirst, plugin, null);
+
+                if((flagsProto & DONE) != 0) {
+                    return rt;
+                }
+            }
+            finally {
+                Macro.setOptions(thread, optionsOld);
+            }
+        }
+
+        // run
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, imps.size()));
+        AtomicInteger done = new AtomicInteger();
+        boolean allSlices = stacks && (flagsProto & DOES_STACKS) != 0;
+        List<Future<Object[]>> futures = new ArrayList<>();
+
+        for(ImagePlus imp : imps) {
+            futures.add(pool.submit(() -> {
+                Object[] row = processImage(proto, imp, allSlices);
+                IJ.showProgress(done.incrementAndGet(), imps.size());
+                return row;
+            }));
+        }
+
+        pool.shutdown();
+
+        for(int i = 0; i < futures.size(); i++) {
+            ImagePlus imp = imps.get(i);
+            Object[] row;
+
+            try {
+                row = futures.get(i).get();
+            }
+            catch(InterruptedException ex) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch(ExecutionException ex) {
+                row = new Object[] { 0, Double.NaN, "ERR : " + ex.getCause() };
+            }
+
+            rt.incrementCounter();
+            rt.addValue("Title", imp.getTitle());
+            rt.addValue("ID", imp.getID());
+            rt.addValue("Slices", (Integer)row[0]);
+            rt.addValue("Time(ms)", (Double)row[1]);
+            rt.addValue("Status", (String)row[2]);
+        }
+
+        IJ.showProgress(1.0);
+        return rt;
+    }
+
+    // process one image by a copy of the prototype. returns { slices, time (ms), status }
+    private static Object[] processImage(PlugInFilter proto, ImagePlus imp, boolean allSlices) throws ReflectiveOperationException {
+        if(!imp.lockSilently()) {
+            return new Object[] { 0, Double.NaN, "locked" };
+        }
+
+        try {
+            long t0 = System.nanoTime();
+            PlugInFilter filter = copyFilter(proto);
+            int flags = filter.setup("", imp);
+
+            if((flags & DONE) != 0) {
+                return new Object[] { 0, Double.NaN, "skipped" };
+            }
+
+            if(!accepts(flags, imp)) {
+                return new Object[] { 0, Double.NaN, "wrong image format" };
+            }
+
+            ImageStack stack = imp.getStack();
+            int num = allSlices ? stack.getSize() : 1;
+
+            if(filter instanceof ExtendedPlugInFilter) {
+                ((ExtendedPlugInFilter)filter).setNPasses(num);
+            }
+
+            if(num == 1) {
+                filter.run(imp.getProcessor());
+            }
+            else {
+                for(int i = 1; i <= num; i++) {
+                    filter.run(stack.getProcessor(i));
+                }
+            }
+
+            if((flags & NO_CHANGES) == 0) {
+                imp.changes = true;
+                imp.updateAndDraw();
+            }
+
+            return new Object[] { num, (System.nanoTime() - t0) / 1e6, "done" };
+        }
+        finally {
+            imp.unlock();
+        }
+    }
+
+    private static PlugInFilter newFilter(String plugin) {
+        try {
+            Object obj = IJ.getClassLoader().loadClass(plugin).getDeclaredConstructor().newInstance();
+
+            if(!(obj instanceof PlugInFilter)) {
+                throw new IllegalArgumentException(plugin + " is not a filter.");
+            }
+
+            if(usesSharedOutput(obj.getClass())) {
+                throw new IllegalArgumentException(plugin + " uses the Results table or the ROI Manager, which cannot be shared by parallel workers.");
+            }
+
+            return (PlugInFilter)obj;
+        }
+        catch(ReflectiveOperationException | LinkageError ex) {
+            throw new IllegalArgumentException(plugin + " cannot be loaded : " + ex);
+        }
+    }
+
+    // whether the class (or its nested classes) refers to the Results table or the ROI Manager. the constant pool of the class file is searched.
+    private static boolean usesSharedOutput(Class<?> cls) {
+        String[] refs = { "ij/measure/ResultsTable", "ij/plugin/frame/RoiManager", "GetResultsTable", "GetRoiManager" };
+        List<Class<?>> classes = new ArrayList<>();
+
+        classes.add(cls);
+        classes.addAll(Arrays.asList(cls.getDeclaredClasses()));
+
+        for(Class<?> c : classes) {
+            String name = c.getName();
+
+            try(InputStream in = c.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+                if(in == null) {
+                    return true;
+                }
+
+                String bytes = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+
+                for(String ref : refs) {
+                    if(bytes.contains(ref)) {
+                        return true;
+                    }
+                }
+            }
+            catch(IOException ex) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // a new instance with the (non-final) instance fields of the prototype
+    private static PlugInFilter copyFilter(PlugInFilter proto) throws ReflectiveOperationException {
+        PlugInFilter dst = proto.getClass().getDeclaredConstructor().newInstance();
+
+        for(Class<?> cls = proto.getClass(); cls != Object.class; cls = cls.getSuperclass()) {
+            for(Field f : cls.getDeclaredFields()) {
+                int mod = f.getModifiers();
+
+                if(Modifier.isStatic(mod) || Modifier.isFinal(mod)) {
+                    continue;
+                }
+
+                f.setAccessible(true);
+                f.set(dst, f.get(proto));
+            }
+        }
+
+        return dst;
+    }
+
+    private static boolean accepts(int flags, ImagePlus imp) {
+        switch(imp.getType()) {
+            case ImagePlus.GRAY8:
+                return (flags & DOES_8G) != 0;
+            case ImagePlus.COLOR_256:
+                return (flags & DOES_8C) != 0;
+            case ImagePlus.GRAY16:
+                return (flags & DOES_16) != 0;
+            case ImagePlus.GRAY32:
+                return (flags & DOES_32) != 0;
+            case ImagePlus.COLOR_RGB:
+                return (flags & DOES_RGB) != 0;
+            default:
+                return false;
+        }
+    }
+}
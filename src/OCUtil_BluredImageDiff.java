@@ -145,7 +145,7 @@ public class OCUtil_BluredImageDiff implements ij.plugin.filter.ExtendedPlugInFi
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -237,8 +237,8 @@ public class OCUtil_BluredImageDiff implements ij.plugin.filter.ExtendedPlugInFi
             short[] srcdst_shorts = (short[])ip.getPixels();
 
             // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_16S);
+            Mat src_mat = new Mat(imh, imw, CvType.CV_16U);
+            Mat dst_mat = new Mat(imh, imw, CvType.CV_16U);
 
             // run
             src_mat.put(0, 0, srcdst_shorts);
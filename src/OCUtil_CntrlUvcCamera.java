@@ -90,6 +90,7 @@ public class OCUtil_CntrlUvcCamera implements ExtendedPlugInFilter {
     private static VideoCapture src_cap = null;
     private static ImagePlus imp_dsp = null;
     private static int[] impdsp_intarray = null;
+    private static byte[] impdsp_buf = null;
     private boolean isChanged = true;
 
     @Override
@@ -144,7 +145,7 @@ public class OCUtil_CntrlUvcCamera implements ExtendedPlugInFilter {
 
     @Override
     public int setup(String arg0, ImagePlus arg1) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -241,7 +242,7 @@ public class OCUtil_CntrlUvcCamera implements ExtendedPlugInFilter {
             }
 
             if(src_mat.type() == CvType.CV_8UC3) {
-                OCV__LoadLibrary.mat2intarray(src_mat, impdsp_intarray, width, height);
+                impdsp_buf = OCV__LoadLibrary.mat2intarray(src_mat, impdsp_intarray, width, height, impdsp_buf);
             }
             else {
                 IJ.error("Color camera is supported only.");
@@ -0,0 +1,147 @@
+import ij.IJ;
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import java.util.List;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Filtered virtual stack.
+ * The steps of OCV_FilterChain are applied to each slice of the stack on the first access (see MyFilteredStack).
+ */
+public class OCUtil_FilteredVirtualStack implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | NO_CHANGES;
+
+    // static var.
+    private static String chain = "GaussianBlur(5, 5, 0, 0)";
+    private static int cacheSlices = 64;
+    private static int numPrefetch = 2;
+
+    // var.
+    private ImagePlus impSrc = null;
+    private List<OCV_FilterChain.Step> steps = null;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addStringField("chain", chain, 60);
+        gd.addNumericField("cache_slices", cacheSlices, 0);
+        gd.addNumericField("prefetch", numPrefetch, 0);
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            chain = gd.getNextString().trim();
+            cacheSlices = (int)gd.getNextNumber();
+            numPrefetch = (int)gd.getNextNumber();
+
+            if(cacheSlices < 1 || numPrefetch < 0) {
+                IJ.error("'1 <= cache_slices' and '0 <= prefetch' are necessary.");
+                return DONE;
+            }
+
+            try {
+                steps = OCV_FilterChain.parse(chain);
+            }
+            catch(IllegalArgumentException ex) {
+                IJ.error(ex.getMessage());
+                return DONE;
+            }
+
+            if(steps.isEmpty()) {
+                IJ.error("chain is empty.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        if(imp == null) {
+            IJ.noImage();
+            return DONE;
+        }
+        else {
+            impSrc = imp;
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        MyFilteredStack stackDst = new MyFilteredStack("OCUtil_FilteredVirtualStack", impSrc.getStack(), steps, cacheSlices, numPrefetch);
+        String titleDst = WindowManager.getUniqueName(impSrc.getTitle() + "_Filtered");
+        ImagePlus impDst = new ImagePlus(titleDst, stackDst);
+
+        impDst.setDimensions(impSrc.getNChannels(), impSrc.getNSlices(), impSrc.getNFrames());
+        impDst.setOpenAsHyperStack(impSrc.isHyperStack());
+
+        if(stackDst.getWidth() == impSrc.getWidth() && stackDst.getHeight() == impSrc.getHeight()) {
+            impDst.setCalibration(impSrc.getCalibration());
+        }
+
+        ImagePlus.addImageListener(new ImageListener() {
+            @Override
+            public void imageOpened(ImagePlus imp) {
+                // do nothing
+            }
+
+            @Override
+            public void imageClosed(ImagePlus imp) {
+                if(imp == impDst) {
+                    stackDst.dispose();
+                    ImagePlus.removeImageListener(this);
+                }
+            }
+
+            @Override
+            public void imageUpdated(ImagePlus imp) {
+                // do nothing
+            }
+        });
+
+        impDst.show();
+    }
+}
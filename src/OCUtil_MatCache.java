@@ -0,0 +1,91 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Mat cache (native mirrors of 8-bit images shared between OCV plugins).
+ */
+public class OCUtil_MatCache implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+
+    // static var.
+    private static boolean enCache = false;
+    private static boolean enResultCache = false;
+    private static boolean enClear = false;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addCheckbox("enable_cache", OCV__LoadLibrary.isMatCacheEnabled());
+        gd.addCheckbox("enable_result_cache", MyResultCache.isEnabled());
+        gd.addCheckbox("clear_cache_and_counters", enClear);
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            enCache = gd.getNextBoolean();
+            enResultCache = gd.getNextBoolean();
+            enClear = gd.getNextBoolean();
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        IJ.log("MatCache : hits=" + OCV__LoadLibrary.getMatCacheHits() + ", misses=" + OCV__LoadLibrary.getMatCacheMisses());
+        IJ.log("ResultCache : hits=" + MyResultCache.getHits() + ", misses=" + MyResultCache.getMisses());
+
+        if(enClear) {
+            OCV__LoadLibrary.ClearMatCache();
+            MyResultCache.clear();
+        }
+
+        OCV__LoadLibrary.SetMatCacheEnabled(enCache);
+        MyResultCache.setEnabled(enResultCache);
+    }
+}
@@ -177,7 +177,7 @@ public class OCUtil_MeasureWidth implements ij.plugin.filter.ExtendedPlugInFilte
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -0,0 +1,232 @@
+import ij.IJ;
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.io.FileInfo;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.opencv.core.Mat;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Open an uncompressed TIFF or raw file as a memory-mapped virtual stack (see MyMappedStack).
+ * If writable is checked, the steps of OCV_FilterChain in chain are applied to all slices in place, on the mapped memory.
+ * The steps must keep the type and the size of the image.
+ */
+public class OCUtil_OpenMappedStack implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+    private static final String[] STR_FORMAT = { "TIFF", "raw" };
+    private static final String[] STR_TYPE = { "8-bit", "16-bit Unsigned", "32-bit Real" };
+    private static final int[] INT_TYPE = { FileInfo.GRAY8, FileInfo.GRAY16_UNSIGNED, FileInfo.GRAY32_FLOAT };
+
+    // static var.
+    private static String path = "";
+    private static int indFormat = 0;
+    private static int width = 512;
+    private static int height = 512;
+    private static int numImages = 1;
+    private static double offset = 0;
+    private static int gap = 0;
+    private static int indType = 0;
+    private static boolean littleEndian = true;
+    private static boolean writable = false;
+    private static String chain = "";
+
+    // var.
+    private List<OCV_FilterChain.Step> steps = null;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addFileField("path", path);
+        gd.addChoice("format", STR_FORMAT, STR_FORMAT[indFormat]);
+        gd.addMessage("raw only");
+        gd.addNumericField("width", width, 0);
+        gd.addNumericField("height", height, 0);
+        gd.addNumericField("number_of_images", numImages, 0);
+        gd.addNumericField("offset", offset, 0);
+        gd.addNumericField("gap", gap, 0);
+        gd.addChoice("type", STR_TYPE, STR_TYPE[indType]);
+        gd.addCheckbox("little_endian", littleEndian);
+        gd.addMessage("");
+        gd.addCheckbox("writable (the changes are written to the file)", writable);
+        gd.addStringField("chain", chain, 40);
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            path = gd.getNextString().trim();
+            indFormat = gd.getNextChoiceIndex();
+            width = (int)gd.getNextNumber();
+            height = (int)gd.getNextNumber();
+            numImages = (int)gd.getNextNumber();
+            offset = gd.getNextNumber();
+            gap = (int)gd.getNextNumber();
+            indType = gd.getNextChoiceIndex();
+            littleEndian = gd.getNextBoolean();
+            writable = gd.getNextBoolean();
+            chain = gd.getNextString().trim();
+
+            if(indFormat == 1 && (width < 1 || height < 1 || numImages < 1 || offset < 0 || gap < 0)) {
+                IJ.error("'1 <= width', '1 <= height', '1 <= number_of_images', '0 <= offset' and '0 <= gap' are necessary.");
+                return DONE;
+            }
+
+            try {
+                steps = OCV_FilterChain.parse(chain);
+            }
+            catch(IllegalArgumentException ex) {
+                IJ.error(ex.getMessage());
+                return DONE;
+            }
+
+            if(!steps.isEmpty() && !writable) {
+                IJ.error("chain needs writable.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        File f = new File(path);
+        MyMappedStack stack;
+
+        try {
+            if(indFormat == 0) {
+                stack = MyMappedStack.openTiff(path, writable);
+            }
+            else {
+                FileInfo fi = new FileInfo();
+                fi.directory = f.getParent();
+                fi.fileName = f.getName();
+                fi.width = width;
+                fi.height = height;
+                fi.nImages = numImages;
+                fi.longOffset = (long)offset;
+                fi.gapBetweenImages = gap;
+                fi.fileType = INT_TYPE[indType];
+                fi.intelByteOrder = littleEndian;
+                stack = MyMappedStack.openRaw(fi, writable);
+            }
+        }
+        catch(IOException | IllegalStateException ex) {
+            IJ.error(ex.getMessage());
+            return;
+        }
+
+        if(!steps.isEmpty()) {
+            try {
+                applySteps(stack);
+            }
+            catch(IllegalArgumentException ex) {
+                IJ.error(ex.getMessage());
+            }
+        }
+
+        ImagePlus impDst = new ImagePlus(f.getName(), stack);
+
+        ImagePlus.addImageListener(new ImageListener() {
+            @Override
+            public void imageOpened(ImagePlus imp) {
+                // do nothing
+            }
+
+            @Override
+            public void imageClosed(ImagePlus imp) {
+                if(imp == impDst) {
+                    stack.dispose();
+                    ImagePlus.removeImageListener(this);
+                }
+            }
+
+            @Override
+            public void imageUpdated(ImagePlus imp) {
+                // do nothing
+            }
+        });
+
+        impDst.show();
+    }
+
+    private void applySteps(MyMappedStack stack) {
+        int num = stack.getSize();
+        AtomicInteger done = new AtomicInteger();
+
+        // The first slice checks the type and the size of the result.
+        stack.process(1, this::applySteps);
+        IJ.showProgress(done.incrementAndGet(), num);
+
+        IntStream.rangeClosed(2, num).parallel().forEach(n -> {
+            stack.process(n, this::applySteps);
+            IJ.showProgress(done.incrementAndGet(), num);
+        });
+    }
+
+    private void applySteps(Mat mat) {
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCUtil_OpenMappedStack")) {
+            Mat dst_mat = mat;
+
+            for(OCV_FilterChain.Step step : steps) {
+                dst_mat = step.apply(dst_mat, scope);
+            }
+
+            if(dst_mat.type() != mat.type() || dst_mat.cols() != mat.cols() || dst_mat.rows() != mat.rows()) {
+                throw new IllegalArgumentException("The steps must keep the type and the size of the image.");
+            }
+
+            if(dst_mat != mat) {
+                dst_mat.copyTo(mat);
+            }
+        }
+    }
+}
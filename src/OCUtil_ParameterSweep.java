@@ -0,0 +1,441 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Parameter sweep.
+ * A grid of parameter values of Canny, Threshold, AdaptiveThreshold or MorphologyEx is evaluated in parallel.
+ * The result is a stack (one slice per grid point) and a table of metrics.
+ * The preprocessing is shared between grid points.
+ * <ul>
+ * <li>preprocess : steps of OCV_FilterChain applied once before the sweep.</li>
+ * <li>Canny : the gradients (Sobel) are computed once for each apertureSize.</li>
+ * <li>AdaptiveThreshold : the difference from the local mean is computed once for each adaptiveMethod and blockSize, so only the comparison depends on constSubtractedFromMean.</li>
+ * </ul>
+ * The names of the parameters are those of OCV_FilterChain (the fields of the dialog of each plugin).
+ * The values are "start:stop:step" or a list separated by ' '.
+ */
+public class OCUtil_ParameterSweep implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | NO_CHANGES;
+    private static final String[] STR_TARGET = { "Canny", "Threshold", "AdaptiveThreshold", "MorphologyEx" };
+    private static final int MAX_POINTS = 10000;
+
+    // static var.
+    private static int indTarget = 0;
+    private static String preprocess = "";
+    private static String fixedArgs = "apertureSize=3, L2gradient=false";
+    private static String param1 = "threshold1";
+    private static String values1 = "0:200:50";
+    private static String param2 = "threshold2";
+    private static String values2 = "50:250:50";
+
+    // var.
+    private ImagePlus impSrc = null;
+    private List<OCV_FilterChain.Step> stepsPre = null;
+    private double[] vals1 = null;
+    private double[] vals2 = null;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addChoice("target", STR_TARGET, STR_TARGET[indTarget]);
+        gd.addStringField("preprocess", preprocess, 40);
+        gd.addStringField("fixed_args", fixedArgs, 40);
+        gd.addStringField("param1", param1, 20);
+        gd.addStringField("values1", values1, 20);
+        gd.addStringField("param2", param2, 20);
+        gd.addStringField("values2", values2, 20);
+        gd.addMessage("values : 'start:stop:step' or a list separated by ' '.\nparam2 can be empty.");
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            indTarget = gd.getNextChoiceIndex();
+            preprocess = gd.getNextString().trim();
+            fixedArgs = gd.getNextString().trim();
+            param1 = gd.getNextString().trim();
+            values1 = gd.getNextString().trim();
+            param2 = gd.getNextString().trim();
+            values2 = gd.getNextString().trim();
+
+            try {
+                stepsPre = OCV_FilterChain.parse(preprocess);
+                vals1 = parseValues(values1);
+                vals2 = param2.isEmpty() ? new double[] { Double.NaN } : parseValues(values2);
+
+                if(param1.isEmpty()) {
+                    throw new IllegalArgumentException("param1 is empty.");
+                }
+
+                if(MAX_POINTS < vals1.length * vals2.length) {
+                    throw new IllegalArgumentException("The number of grid points must be " + MAX_POINTS + " or less.");
+                }
+
+                // validate all grid points before the sweep
+                for(double v1 : vals1) {
+                    for(double v2 : vals2) {
+                        OCV_FilterChain.parse(getSpec(v1, v2));
+                    }
+                }
+            }
+            catch(IllegalArgumentException ex) {
+                IJ.error(ex.getMessage());
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        if(imp == null) {
+            IJ.noImage();
+            return DONE;
+        }
+        else {
+            impSrc = imp;
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        int imw = ip.getWidth();
+        int imh = ip.getHeight();
+        int num = vals1.length * vals2.length;
+        String[] specs = new String[num];
+        ImageProcessor[] ipDsts = new ImageProcessor[num];
+        double[][] metrics = new double[num][];
+
+        for(int i = 0; i < num; i++) {
+            specs[i] = getSpec(vals1[i / vals2.length], vals2[i % vals2.length]);
+        }
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCUtil_ParameterSweep")) {
+            // shared preprocessing
+            Mat src_mat = scope.get(imh, imw, MyMatTiler.cvType(ip));
+            MyMatTiler.put(ip.getPixels(), src_mat, imw, imh);
+
+            for(OCV_FilterChain.Step step : stepsPre) {
+                src_mat = step.apply(src_mat, scope);
+            }
+
+            Map<String, Mat> shared = prepare(src_mat, specs, scope);
+            final Mat src_final = src_mat;
+            AtomicInteger done = new AtomicInteger();
+
+            // grid points
+            IntStream.range(0, num).parallel().forEach(i -> {
+                try(OCV__LoadLibrary.MatScope scopePoint = new OCV__LoadLibrary.MatScope("OCUtil_ParameterSweep")) {
+                    long t0 = System.nanoTime();
+                    Mat dst_mat = evaluate(src_final, specs[i], shared, scopePoint);
+                    double time = (System.nanoTime() - t0) / 1000000.0;
+
+                    ipDsts[i] = toProcessor(dst_mat, scopePoint);
+                    metrics[i] = measure(dst_mat, time, scopePoint);
+                }
+
+                IJ.showProgress(done.incrementAndGet(), num);
+            });
+        }
+
+        // stack
+        ImageStack stackDst = new ImageStack(ipDsts[0].getWidth(), ipDsts[0].getHeight());
+
+        for(int i = 0; i < num; i++) {
+            stackDst.addSlice(getLabel(i), ipDsts[i]);
+        }
+
+        String titleDst = WindowManager.getUniqueName(impSrc.getTitle() + "_Sweep");
+        ImagePlus impDst = new ImagePlus(titleDst, stackDst);
+        impDst.getProcessor().resetMinAndMax();
+        impDst.show();
+
+        // metrics
+        ResultsTable rt = OCV__LoadLibrary.GetResultsTable(true);
+
+        for(int i = 0; i < num; i++) {
+            rt.incrementCounter();
+            rt.addValue("Slice", i + 1);
+            rt.addValue(param1, vals1[i / vals2.length]);
+
+            if(!param2.isEmpty()) {
+                rt.addValue(param2, vals2[i % vals2.length]);
+            }
+
+            rt.addValue("NonZero", metrics[i][0]);
+            rt.addValue("NonZeroRatio", metrics[i][1]);
+            rt.addValue("Mean", metrics[i][2]);
+            rt.addValue("Components", metrics[i][3]);
+            rt.addValue("Time(ms)", metrics[i][4]);
+        }
+
+        rt.show("Results");
+    }
+
+    private String getSpec(double v1, double v2) {
+        StringBuilder sb = new StringBuilder(STR_TARGET[indTarget]).append("(");
+
+        if(!fixedArgs.isEmpty()) {
+            sb.append(fixedArgs).append(", ");
+        }
+
+        sb.append(param1).append("=").append(v1);
+
+        if(!param2.isEmpty()) {
+            sb.append(", ").append(param2).append("=").append(v2);
+        }
+
+        return sb.append(")").toString();
+    }
+
+    private String getLabel(int i) {
+        String label = param1 + "=" + IJ.d2s(vals1[i / vals2.length], 4, 9);
+
+        if(!param2.isEmpty()) {
+            label += ", " + param2 + "=" + IJ.d2s(vals2[i % vals2.length], 4, 9);
+        }
+
+        return label;
+    }
+
+    // compute the intermediate results shared between grid points (not modified by the grid points).
+    private static Map<String, Mat> prepare(Mat src, String[] specs, OCV__LoadLibrary.MatScope scope) {
+        Map<String, Mat> shared = new HashMap<>();
+        Mat src_8u = null;
+
+        for(String spec : specs) {
+            OCV_FilterChain.Args args = OCV_FilterChain.parseArgs(spec);
+            String key = getSharedKey(args);
+
+            if(key == null || shared.containsKey(key + "_0")) {
+                continue;
+            }
+
+            if(src_8u == null) {
+                src_8u = OCV_FilterChain.to8U(src, scope);
+            }
+
+            if(args.name.equals("Canny")) {
+                int apertureSize = (int)args.get(2, "apertureSize", 3);
+                Mat dx = scope.add(new Mat());
+                Mat dy = scope.add(new Mat());
+
+                // same as the gradients in Canny
+                Imgproc.Sobel(src_8u, dx, CvType.CV_16S, 1, 0, apertureSize, 1, 0, Core.BORDER_REPLICATE);
+                Imgproc.Sobel(src_8u, dy, CvType.CV_16S, 0, 1, apertureSize, 1, 0, Core.BORDER_REPLICATE);
+                shared.put(key + "_0", dx);
+                shared.put(key + "_1", dy);
+            }
+            else {
+                int method = (int)args.get(1, "adaptiveMethod", Imgproc.ADAPTIVE_THRESH_MEAN_C);
+                int blockSize = (int)args.get(3, "blockSize", 5);
+                Mat mean = scope.get(src_8u.rows(), src_8u.cols(), CvType.CV_8UC1);
+                Mat diff = scope.add(new Mat());
+
+                // same as the local mean in adaptiveThreshold
+                if(method == Imgproc.ADAPTIVE_THRESH_MEAN_C) {
+                    Imgproc.boxFilter(src_8u, mean, CvType.CV_8U, new Size(blockSize, blockSize), new Point(-1, -1), true, Core.BORDER_REPLICATE | Core.BORDER_ISOLATED);
+                }
+                else {
+                    Imgproc.GaussianBlur(src_8u, mean, new Size(blockSize, blockSize), 0, 0, Core.BORDER_REPLICATE | Core.BORDER_ISOLATED);
+                }
+
+                Core.subtract(src_8u, mean, diff, scope.add(new Mat()), CvType.CV_16S);
+                shared.put(key + "_0", diff);
+            }
+        }
+
+        if(src_8u != null) {
+            shared.put("8U", src_8u);
+        }
+
+        return shared;
+    }
+
+    private static String getSharedKey(OCV_FilterChain.Args args) {
+        switch(args.name) {
+            case "Canny":
+                return "Canny_" + (int)args.get(2, "apertureSize", 3);
+            case "AdaptiveThreshold":
+                return "AdaptiveThreshold_" + (int)args.get(1, "adaptiveMethod", Imgproc.ADAPTIVE_THRESH_MEAN_C) + "_" + (int)args.get(3, "blockSize", 5);
+            default:
+                return null;
+        }
+    }
+
+    private static Mat evaluate(Mat src, String spec, Map<String, Mat> shared, OCV__LoadLibrary.MatScope scope) {
+        OCV_FilterChain.Args args = OCV_FilterChain.parseArgs(spec);
+        String key = getSharedKey(args);
+
+        if(key != null && args.name.equals("Canny")) {
+            double thr1 = args.get(0, "threshold1", 0);
+            double thr2 = args.get(1, "threshold2", 0);
+            boolean l2grad = args.get(3, "L2gradient", 0) != 0;
+            Mat dst = scope.get(src.rows(), src.cols(), CvType.CV_8UC1);
+
+            Imgproc.Canny(shared.get(key + "_0"), shared.get(key + "_1"), dst, thr1, thr2, l2grad);
+            return dst;
+        }
+        else if(key != null) {
+            double maxValue = args.get(0, "maxValue", 255);
+            int type = (int)args.get(2, "thresholdType", Imgproc.THRESH_BINARY);
+            double subC = args.get(4, "constSubtractedFromMean", 10);
+            int idelta = type == Imgproc.THRESH_BINARY ? (int)Math.ceil(subC) : (int)Math.floor(subC);
+            Mat diff = shared.get(key + "_0");
+            Mat mask = scope.get(src.rows(), src.cols(), CvType.CV_8UC1);
+            Mat dst = scope.get(src.rows(), src.cols(), CvType.CV_8UC1);
+
+            // dst = (src - mean > -C) ? maxValue : 0 (THRESH_BINARY)
+            Core.compare(diff, new Scalar(-idelta), mask, type == Imgproc.THRESH_BINARY ? Core.CMP_GT : Core.CMP_LE);
+            dst.setTo(new Scalar(0));
+            dst.setTo(new Scalar(Math.min(255, Math.max(0, Math.round(maxValue)))), mask);
+            return dst;
+        }
+        else {
+            Mat dst = src;
+
+            for(OCV_FilterChain.Step step : OCV_FilterChain.parse(spec)) {
+                dst = step.apply(dst, scope);
+            }
+
+            return dst;
+        }
+    }
+
+    private static ImageProcessor toProcessor(Mat mat, OCV__LoadLibrary.MatScope scope) {
+        int imw = mat.cols();
+        int imh = mat.rows();
+
+        if(mat.type() == CvType.CV_32S) {
+            Mat mat_32f = scope.get(imh, imw, CvType.CV_32F);
+            mat.convertTo(mat_32f, CvType.CV_32F);
+            mat = mat_32f;
+        }
+
+        ImageProcessor ip = mat.type() == CvType.CV_8UC1 ? new ByteProcessor(imw, imh) : mat.type() == CvType.CV_16U ? new ShortProcessor(imw, imh) : new FloatProcessor(imw, imh);
+        MyMatTiler.get(mat, ip.getPixels(), imw, imh);
+        return ip;
+    }
+
+    // NonZero, NonZeroRatio, Mean, Components (8-bit only), Time
+    private static double[] measure(Mat mat, double time, OCV__LoadLibrary.MatScope scope) {
+        int nonzero = Core.countNonZero(mat);
+        double mean = Core.mean(mat).val[0];
+        double components = Double.NaN;
+
+        if(mat.type() == CvType.CV_8UC1) {
+            Mat labels = scope.get(mat.rows(), mat.cols(), CvType.CV_32S);
+            components = Imgproc.connectedComponents(mat, labels, 8, CvType.CV_32S) - 1;
+        }
+
+        return new double[] { nonzero, (double)nonzero / mat.total(), mean, components, time };
+    }
+
+    /**
+     * parse the values of a parameter.
+     * @param str "start:stop:step" or a list separated by ' '
+     * @return values
+     * @throws IllegalArgumentException if the values are wrong.
+     */
+    public static double[] parseValues(String str) {
+        try {
+            if(str.contains(":")) {
+                String[] tokens = str.split(":");
+
+                if(tokens.length != 3) {
+                    throw new IllegalArgumentException("Wrong values : " + str);
+                }
+
+                double start = Double.parseDouble(tokens[0].trim());
+                double stop = Double.parseDouble(tokens[1].trim());
+                double step = Double.parseDouble(tokens[2].trim());
+
+                if(step <= 0 || stop < start || MAX_POINTS < (stop - start) / step) {
+                    throw new IllegalArgumentException("Wrong values : " + str);
+                }
+
+                int num = (int)Math.floor((stop - start) / step + 1e-9) + 1;
+                double[] values = new double[num];
+
+                for(int i = 0; i < num; i++) {
+                    values[i] = start + step * i;
+                }
+
+                return values;
+            }
+            else {
+                String[] tokens = str.trim().split("\\s+");
+                double[] values = new double[tokens.length];
+
+                for(int i = 0; i < tokens.length; i++) {
+                    values[i] = Double.parseDouble(tokens[i]);
+                }
+
+                return values;
+            }
+        }
+        catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Wrong values : " + str);
+        }
+    }
+}
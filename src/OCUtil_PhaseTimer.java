@@ -0,0 +1,103 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import java.io.IOException;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Per-phase latency of the plugins (enable, show and save).
+ */
+public class OCUtil_PhaseTimer implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+
+    // static var.
+    private static boolean enShow = true;
+    private static boolean enReset = false;
+    private static String pathCsv = "";
+
+    // var.
+    private boolean enTimer = false;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addCheckbox("enable_timer", MyPhaseTimer.isEnabled());
+        gd.addCheckbox("show_table", enShow);
+        gd.addStringField("csv_path", pathCsv, 30);
+        gd.addCheckbox("reset_after_output", enReset);
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            enTimer = gd.getNextBoolean();
+            enShow = gd.getNextBoolean();
+            pathCsv = gd.getNextString().trim();
+            enReset = gd.getNextBoolean();
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        ResultsTable rt = MyPhaseTimer.getTable();
+
+        if(enShow) {
+            rt.show("PhaseTimes");
+        }
+
+        if(!pathCsv.isEmpty()) {
+            try {
+                rt.saveAs(pathCsv);
+            }
+            catch(IOException ex) {
+                IJ.log("ERR : " + ex.toString());
+            }
+        }
+
+        if(enReset) {
+            MyPhaseTimer.reset();
+        }
+
+        MyPhaseTimer.setEnabled(enTimer);
+    }
+}
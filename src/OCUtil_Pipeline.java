@@ -0,0 +1,320 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.io.FileSaver;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Batch processing of a directory with a pipeline file.
+ * Each line of the pipeline file is a step written in the same way as the options of a macro. Empty lines and lines starting with '#' are ignored.
+ * <pre>
+ * # pipeline.txt
+ * OCV_GaussianBlur ksize_x=5 ksize_y=5 sigma_x=0 sigma_y=0
+ * OCV_Threshold thresh=0 maxval=255 adaptiveMethod=THRESH_OTSU
+ * OCV_MorphologyEx operation=MORPH_OPEN shape=MORPH_RECT ksize_x=3 ksize_y=3 iterations=1
+ * </pre>
+ * The steps are those of OCV_FilterChain. The images are processed by a pool of workers and each result is saved as TIFF as soon as it is done.
+ * The result of "a.png" is "a.tif". If the name is already used by another image (e.g. "a.jpg"), the extension is kept (e.g. "a_jpg.tif").
+ * The output directory must be different from the input directory.
+ * No window, ROI Manager or ResultsTable is opened, so it can be run headless.
+ * <pre>
+ * java -Djava.awt.headless=true -cp ij.jar:IJToolsUsingOpenCV.jar:opencv.jar OCUtil_Pipeline pipeline.txt input_dir output_dir [num_workers]
+ * </pre>
+ */
+public class OCUtil_Pipeline implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+
+    // static var.
+    private static String pathPipeline = "";
+    private static String dirInput = "";
+    private static String dirOutput = "";
+    private static int numWorkers = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addFileField("pipeline", pathPipeline);
+        gd.addDirectoryField("input_dir", dirInput);
+        gd.addDirectoryField("output_dir", dirOutput);
+        gd.addNumericField("num_workers", numWorkers, 0);
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            pathPipeline = gd.getNextString().trim();
+            dirInput = gd.getNextString().trim();
+            dirOutput = gd.getNextString().trim();
+            numWorkers = (int)gd.getNextNumber();
+
+            if(numWorkers < 1) {
+                IJ.error("'1 <= num_workers' is necessary.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        try {
+            List<OCV_FilterChain.Step> steps = load(pathPipeline);
+            int num = runBatch(steps, new File(dirInput), new File(dirOutput), numWorkers);
+            IJ.log("OCUtil_Pipeline : " + num + " images were processed.");
+        }
+        catch(IOException | IllegalArgumentException ex) {
+            IJ.error(ex.getMessage());
+        }
+    }
+
+    /**
+     * headless batch processing.
+     * @param args pipeline file, input directory, output directory and number of workers (optional)
+     */
+    public static void main(String[] args) {
+        if(args.length < 3) {
+            System.err.println("usage : OCUtil_Pipeline pipeline input_dir output_dir [num_workers]");
+            System.exit(1);
+        }
+
+        if(!OCV__LoadLibrary.isLoad(new OCUtil_Pipeline())) {
+            System.err.println("Library is not loaded.");
+            System.exit(1);
+        }
+
+        try {
+            List<OCV_FilterChain.Step> steps = load(args[0]);
+            int workers = args.length < 4 ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(args[3]);
+            int num = runBatch(steps, new File(args[1]), new File(args[2]), Math.max(1, workers));
+            System.out.println(num + " images were processed.");
+            System.exit(0);
+        }
+        catch(IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * load the pipeline file.
+     * @param path path of the pipeline file
+     * @return steps
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a step is wrong.
+     */
+    public static List<OCV_FilterChain.Step> load(String path) throws IOException {
+        List<OCV_FilterChain.Step> steps = new ArrayList<>();
+
+        for(String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            steps.add(OCV_FilterChain.parseStep(line));
+        }
+
+        if(steps.isEmpty()) {
+            throw new IllegalArgumentException("pipeline is empty : " + path);
+        }
+
+        return steps;
+    }
+
+    /**
+     * apply the steps to all images in the directory.
+     * @param steps steps
+     * @param dirIn input directory
+     * @param dirOut output directory (created if it does not exist, and must be different from dirIn)
+     * @param workers number of workers
+     * @return number of the processed images
+     * @throws IOException if the directories are wrong.
+     */
+    public static int runBatch(List<OCV_FilterChain.Step> steps, File dirIn, File dirOut, int workers) throws IOException {
+        File[] files = dirIn.listFiles(f -> f.isFile() && !f.isHidden());
+
+        if(files == null) {
+            throw new IOException("input_dir is not a directory : " + dirIn);
+        }
+
+        if(dirIn.getCanonicalFile().equals(dirOut.getCanonicalFile())) {
+            throw new IOException("output_dir must be different from input_dir : " + dirOut);
+        }
+
+        if(!dirOut.isDirectory() && !dirOut.mkdirs()) {
+            throw new IOException("output_dir cannot be created : " + dirOut);
+        }
+
+        Arrays.sort(files);
+
+        String[] names = getOutputNames(files);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for(int i = 0; i < files.length; i++) {
+            File file = files[i];
+            File fileOut = new File(dirOut, names[i]);
+
+            futures.add(pool.submit(() -> {
+                if(processFile(steps, file, fileOut)) {
+                    processed.incrementAndGet();
+                }
+
+                IJ.showProgress(done.incrementAndGet(), files.length);
+            }));
+        }
+
+        pool.shutdown();
+
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch(InterruptedException ex) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch(ExecutionException ex) {
+                IJ.log("ERR : " + ex.getCause());
+            }
+        }
+
+        return processed.get();
+    }
+
+    // "name.tif" for each file. the names are unique even on the file systems which ignore the case.
+    private static String[] getOutputNames(File[] files) {
+        String[] names = new String[files.length];
+        HashSet<String> used = new HashSet<>();
+
+        for(int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            int dot = name.lastIndexOf('.');
+            String base = 0 < dot ? name.substring(0, dot) : name;
+            String cand = base + ".tif";
+
+            if(used.contains(cand.toLowerCase(Locale.ROOT)) && 0 < dot) {
+                base = base + "_" + name.substring(dot + 1);
+                cand = base + ".tif";
+            }
+
+            for(int n = 2; used.contains(cand.toLowerCase(Locale.ROOT)); n++) {
+                cand = base + "_" + n + ".tif";
+            }
+
+            used.add(cand.toLowerCase(Locale.ROOT));
+            names[i] = cand;
+        }
+
+        return names;
+    }
+
+    private static boolean processFile(List<OCV_FilterChain.Step> steps, File file, File fileOut) {
+        ImagePlus imp = IJ.openImage(file.getPath());
+
+        if(imp == null) {
+            IJ.log("skipped : " + file.getName());
+            return false;
+        }
+
+        int bitDepth = imp.getBitDepth();
+
+        if(bitDepth != 8 && bitDepth != 16 && bitDepth != 32) {
+            IJ.log("skipped (wrong image format) : " + file.getName());
+            imp.flush();
+            return false;
+        }
+
+        ImageStack stackSrc = imp.getStack();
+        ImageStack stackDst = null;
+
+        // the size of the result can be different from the source (e.g. Resize)
+        for(int i = 1; i <= stackSrc.getSize(); i++) {
+            ImageProcessor ipDst = OCV_FilterChain.apply("OCUtil_Pipeline", steps, stackSrc.getProcessor(i));
+
+            if(stackDst == null) {
+                stackDst = new ImageStack(ipDst.getWidth(), ipDst.getHeight());
+            }
+
+            stackDst.addSlice(stackSrc.getSliceLabel(i), ipDst);
+        }
+
+        ImagePlus impDst = new ImagePlus(fileOut.getName(), stackDst);
+        impDst.setCalibration(imp.getCalibration());
+        impDst.setDimensions(imp.getNChannels(), imp.getNSlices(), imp.getNFrames());
+
+        String path = fileOut.getPath();
+        FileSaver saver = new FileSaver(impDst);
+        boolean saved = stackDst.getSize() == 1 ? saver.saveAsTiff(path) : saver.saveAsTiffStack(path);
+
+        imp.flush();
+        impDst.flush();
+
+        return saved;
+    }
+}
@@ -38,7 +38,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_AdaptiveThreshold implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | KEEP_PREVIEW; // 8-bit single-channel image.
+    private static final int FLAGS = DOES_8G | PARALLELIZE_STACKS | KEEP_PREVIEW; // 8-bit single-channel image.
     private static final int[] INT_ADAPTIVEMETHOD = { Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C };
     private static final String[] STR_ADAPTIVEMETHOD = { "ADAPTIVE_THRESH_MEAN_C", "ADAPTIVE_THRESH_GAUSSIAN_C" };
     private static final int[] INT_THRESHOLDTYPE = { Imgproc.THRESH_BINARY, Imgproc.THRESH_BINARY_INV };
@@ -51,6 +51,8 @@ public class OCV_AdaptiveThreshold implements ij.plugin.filter.ExtendedPlugInFil
     private static int blockSize  = 5;
     private static double subC = 10.0;
 
+    private final MyPreview preview = new MyPreview("OCV_AdaptiveThreshold");
+
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
         GenericDialog gd = new GenericDialog(command.trim() + " ...");
@@ -63,13 +65,15 @@ public class OCV_AdaptiveThreshold implements ij.plugin.filter.ExtendedPlugInFil
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
 
+        preview.start(imp);
         gd.showDialog();
+        int flags = preview.stop(FLAGS);
 
         if(gd.wasCanceled()) {
             return DONE;
         }
         else {
-            return IJ.setupDialog(imp, FLAGS);
+            return IJ.setupDialog(imp, flags);
         }
     }
 
@@ -112,7 +116,7 @@ public class OCV_AdaptiveThreshold implements ij.plugin.filter.ExtendedPlugInFil
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -128,19 +132,29 @@ public class OCV_AdaptiveThreshold implements ij.plugin.filter.ExtendedPlugInFil
 
     @Override
     public void run(ImageProcessor ip) {
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
+        if(preview.run(ip, getHalo(), (src_mat, dst_mat, scale) -> Imgproc.adaptiveThreshold(src_mat, dst_mat, maxValue, INT_ADAPTIVEMETHOD[indMethod], INT_THRESHOLDTYPE[indType], MyPreview.scaleOdd(blockSize, scale, 3), subC))) {
+            return;
+        }
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_AdaptiveThreshold")) {
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
 
-        // srcdst
-        byte[] srcdst_ar = (byte[])ip.getPixels();
+            // srcdst
+            byte[] srcdst_ar = (byte[])ip.getPixels();
 
-        // mat
-        Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-        Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
+            // mat
+            Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+            Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+            // run
+            src_mat.put(0, 0, srcdst_ar);
+            Imgproc.adaptiveThreshold(src_mat, dst_mat, maxValue, INT_ADAPTIVEMETHOD[indMethod], INT_THRESHOLDTYPE[indType], blockSize, subC);
+            dst_mat.get(0, 0, srcdst_ar);
+        }
+    }
 
-        // run
-        src_mat.put(0, 0, srcdst_ar);
-        Imgproc.adaptiveThreshold(src_mat, dst_mat, maxValue, INT_ADAPTIVEMETHOD[indMethod], INT_THRESHOLDTYPE[indType], blockSize, subC);
-        dst_mat.get(0, 0, srcdst_ar);
+    private int getHalo() {
+        return blockSize / 2;
     }
 }
@@ -39,7 +39,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_BilateralFilter implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_32 | KEEP_PREVIEW; // 8-bit or floating-point, 1-channel or 3-channel image.
+    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW; // 8-bit or floating-point, 1-channel or 3-channel image.
 
     /*
      Various border types, image boundaries are denoted with '|'
@@ -60,6 +60,7 @@ public class OCV_BilateralFilter implements ij.plugin.filter.ExtendedPlugInFilte
     private static double sigmaColor  = 15; // Filter sigma in the color space.
     private static double sigmaSpace  = 8; // Filter sigma in the coordinate space.
     private static int indBorderType = 2; // Border type.
+    private final MyPreview preview = new MyPreview("OCV_BilateralFilter");
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -73,13 +74,15 @@ public class OCV_BilateralFilter implements ij.plugin.filter.ExtendedPlugInFilte
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
 
+        preview.start(imp);
         gd.showDialog();
+        int flags = preview.stop(FLAGS);
 
         if(gd.wasCanceled()) {
             return DONE;
         }
         else {
-            return IJ.setupDialog(imp, FLAGS);
+            return IJ.setupDialog(imp, flags);
         }
     }
 
@@ -116,7 +119,7 @@ public class OCV_BilateralFilter implements ij.plugin.filter.ExtendedPlugInFilte
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -132,53 +135,73 @@ public class OCV_BilateralFilter implements ij.plugin.filter.ExtendedPlugInFilte
 
     @Override
     public void run(ImageProcessor ip) {
-        if(ip.getBitDepth() == 8) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_bytes);
-        }
-        else if(ip.getBitDepth() == 24) {
-            // dst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            int[] srcdst_ints = (int[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC3);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC3);
-
-            // run
-            OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
-            Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
-            OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+        // a region or a tile would wrap onto its own edges instead of the image's
+        boolean wrap = INT_BORDERTYPE[indBorderType] == Core.BORDER_WRAP;
+
+        if(!wrap && preview.run(ip, getHalo(), (src_mat, dst_mat, scale) -> Imgproc.bilateralFilter(src_mat, dst_mat, 0 < diameter ? MyPreview.scaleOdd(diameter, scale, 1) : diameter, sigmaColor, sigmaSpace * scale, INT_BORDERTYPE[indBorderType]))) {
+            return;
         }
-        else if(ip.getBitDepth() == 32) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] srcdst_bytes = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32FC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32FC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_bytes);
+
+        if(!wrap && MyMatTiler.isTiled(ip)) {
+            MyMatTiler.run("OCV_BilateralFilter", ip, getHalo(), (src_mat, dst_mat) -> Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]));
+            return;
         }
-        else {
-            IJ.error("Wrong image format");
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_BilateralFilter")) {
+            if(ip.getBitDepth() == 8) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                src_mat.put(0, 0, srcdst_bytes);
+                Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_bytes);
+            }
+            else if(ip.getBitDepth() == 24) {
+                // dst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                int[] srcdst_ints = (int[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC3);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC3);
+
+                // run
+                OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
+                Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
+                OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+            }
+            else if(ip.getBitDepth() == 32) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] srcdst_bytes = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32FC1);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32FC1);
+
+                // run
+                src_mat.put(0, 0, srcdst_bytes);
+                Imgproc.bilateralFilter(src_mat, dst_mat, diameter, sigmaColor, sigmaSpace, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_bytes);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
+
+    // radius of the kernel
+    private int getHalo() {
+        // If diameter is non-positive, it is computed from sigmaSpace.
+        return 0 < diameter ? diameter / 2 : (int)Math.round(sigmaSpace * 1.5);
+    }
 }
@@ -41,7 +41,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_Blur implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_16 | DOES_32 | KEEP_PREVIEW;
+    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_16 | DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW;
 
     /*
      Various border types, image boundaries are denoted with '|'
@@ -118,7 +118,7 @@ public class OCV_Blur implements ij.plugin.filter.ExtendedPlugInFilter, DialogLi
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -134,68 +134,80 @@ public class OCV_Blur implements ij.plugin.filter.ExtendedPlugInFilter, DialogLi
 
     @Override
     public void run(ImageProcessor ip) {
-        if(ip.getBitDepth() == 8) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_bytes);
+        if(MyMatTiler.isTiled(ip)) {
+            MyMatTiler.run("OCV_Blur", ip, getHalo(), (src_mat, dst_mat) -> Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]));
+            return;
         }
-        else if(ip.getBitDepth() == 16) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            short[] srcdst_shorts = (short[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_16S);
-
-            // run
-            src_mat.put(0, 0, srcdst_shorts);
-            Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_shorts);
-        }
-        else if(ip.getBitDepth() == 24) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            int[] srcdst_ints = (int[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC3);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC3);
-
-            // run
-            OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
-            Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
-            OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
-        }
-        else if(ip.getBitDepth() == 32) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] srcdst_floats = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, srcdst_floats);
-            Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_floats);
-        }
-        else {
-            IJ.error("Wrong image format");
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_Blur")) {
+            if(ip.getBitDepth() == 8) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                src_mat.put(0, 0, srcdst_bytes);
+                Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_bytes);
+            }
+            else if(ip.getBitDepth() == 16) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                short[] srcdst_shorts = (short[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_16U);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_16U);
+
+                // run
+                src_mat.put(0, 0, srcdst_shorts);
+                Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_shorts);
+            }
+            else if(ip.getBitDepth() == 24) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                int[] srcdst_ints = (int[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC3);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC3);
+
+                // run
+                OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
+                Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
+                OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+            }
+            else if(ip.getBitDepth() == 32) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] srcdst_floats = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, srcdst_floats);
+                Imgproc.blur(src_mat, dst_mat, ksize, new Point(-1, -1), INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_floats);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
+
+    // radius of the kernel
+    private int getHalo() {
+        return (int)Math.max(ksize_x, ksize_y) / 2;
+    }
 }
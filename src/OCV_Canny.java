@@ -38,7 +38,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_Canny implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | KEEP_PREVIEW; // 8-bit input image.
+    private static final int FLAGS = DOES_8G | PARALLELIZE_STACKS | KEEP_PREVIEW; // 8-bit input image.
     private final String[] SIZE_STR = new String[] { "3", "5", "7"};
     private final int[] SIZE_VAL = new int[] { 3, 5, 7 };
 
@@ -102,7 +102,7 @@ public class OCV_Canny implements ij.plugin.filter.ExtendedPlugInFilter, DialogL
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -118,18 +118,20 @@ public class OCV_Canny implements ij.plugin.filter.ExtendedPlugInFilter, DialogL
 
     @Override
     public void run(ImageProcessor ip) {
-        // srcdst
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
-        byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-        // mat
-        Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-        Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-        // run
-        src_mat.put(0, 0, srcdst_bytes);
-        Imgproc.Canny(src_mat, dst_mat, thr1, thr2, SIZE_VAL[ind_size], l2grad);
-        dst_mat.get(0, 0, srcdst_bytes);
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_Canny")) {
+            // srcdst
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+            byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+            // mat
+            Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+            Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+            // run
+            src_mat.put(0, 0, srcdst_bytes);
+            Imgproc.Canny(src_mat, dst_mat, thr1, thr2, SIZE_VAL[ind_size], l2grad);
+            dst_mat.get(0, 0, srcdst_bytes);
+        }
     }
 }
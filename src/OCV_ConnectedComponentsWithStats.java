@@ -83,7 +83,7 @@ public class OCV_ConnectedComponentsWithStats implements ExtendedPlugInFilter {
 
     @Override
     public int setup(String string, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -100,38 +100,64 @@ public class OCV_ConnectedComponentsWithStats implements ExtendedPlugInFilter {
 
     @Override
     public void run(ImageProcessor ip) {
-        // src
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
-        byte[] src_arr = (byte[])ip.getPixels();
-        Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-        // dst
-        String titleDst = WindowManager.getUniqueName(impSrc.getTitle() + "_Connect" + String.valueOf(TYPE_INT[type_ind]));
-        ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
-        float[] dst_arr = (float[]) impDst.getChannelProcessor().getPixels();
-        Mat dst_mat_32s = new Mat(imh, imw, CvType.CV_32S);
-        Mat dst_mat_32f = new Mat(imh, imw, CvType.CV_32F);
-        Mat stats_mat = new Mat();
-        Mat cens_mat = new Mat();
-
-        // run
-        src_mat.put(0, 0, src_arr);
-        int output_con = Imgproc.connectedComponentsWithStats(src_mat, dst_mat_32s, stats_mat, cens_mat, TYPE_INT[type_ind], CvType.CV_32S);
-        dst_mat_32s.convertTo(dst_mat_32f, CvType.CV_32F);
-        dst_mat_32f.get(0, 0, dst_arr);
-
-        // show data
-        if(1 < output_con) {
-            showData(dst_arr, imw, imh, output_con, stats_mat, cens_mat);
-        }
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_ConnectedComponentsWithStats")) {
+            long t = MyPhaseTimer.start();
+
+            // src
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+
+            // dst
+            String titleDst = WindowManager.getUniqueName(impSrc.getTitle() + "_Connect" + String.valueOf(TYPE_INT[type_ind]));
+            ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
+            float[] dst_arr = (float[]) impDst.getChannelProcessor().getPixels();
+            Mat stats_mat;
+            Mat cens_mat;
+            int output_con;
+
+            // cached results (labels, number of labels, stats, centroids)
+            String key = MyResultCache.key(this, ip);
+            Object[] cached = MyResultCache.get(key);
+
+            if(cached != null) {
+                System.arraycopy((float[])cached[0], 0, dst_arr, 0, dst_arr.length);
+                output_con = (Integer)cached[1];
+                stats_mat = scope.add((Mat)cached[2]);
+                cens_mat = scope.add((Mat)cached[3]);
+                t = MyPhaseTimer.lap("OCV_ConnectedComponentsWithStats", MyPhaseTimer.FROM_MAT, t);
+            }
+            else {
+                Mat src_mat = OCV__LoadLibrary.GetCachedMat(impSrc, ip, scope); // records TO_MAT
+                t = MyPhaseTimer.start();
+                Mat dst_mat_32s = scope.get(imh, imw, CvType.CV_32S);
+                Mat dst_mat_32f = scope.get(imh, imw, CvType.CV_32F);
+                stats_mat = scope.add(new Mat());
+                cens_mat = scope.add(new Mat());
+
+                // run
+                output_con = Imgproc.connectedComponentsWithStats(src_mat, dst_mat_32s, stats_mat, cens_mat, TYPE_INT[type_ind], CvType.CV_32S);
+                t = MyPhaseTimer.lap("OCV_ConnectedComponentsWithStats", MyPhaseTimer.NATIVE, t);
+                dst_mat_32s.convertTo(dst_mat_32f, CvType.CV_32F);
+                dst_mat_32f.get(0, 0, dst_arr);
+                MyPhaseTimer.lap("OCV_ConnectedComponentsWithStats", MyPhaseTimer.FROM_MAT, t);
+                OCV__LoadLibrary.StoreCachedMat(impSrc, ip, src_mat, scope);
+                MyResultCache.put(key, dst_arr, output_con, stats_mat, cens_mat);
+            }
 
-        // finish
-        if(1 < output_con && enOutImg) {
-            impDst.show();
-        }
-        else {
-            impDst.close();
+            // show data
+            if(1 < output_con) {
+                t = MyPhaseTimer.start();
+                showData(dst_arr, imw, imh, output_con, stats_mat, cens_mat);
+                MyPhaseTimer.lap("OCV_ConnectedComponentsWithStats", MyPhaseTimer.RESULTS, t);
+            }
+
+            // finish
+            if(1 < output_con && enOutImg) {
+                impDst.show();
+            }
+            else {
+                impDst.close();
+            }
         }
     }
 
@@ -136,7 +136,7 @@ public class OCV_ConvexHull implements ExtendedPlugInFilter {
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
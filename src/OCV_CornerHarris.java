@@ -118,7 +118,7 @@ public class OCV_CornerHarris implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -134,54 +134,56 @@ public class OCV_CornerHarris implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public void run(ImageProcessor ip) {
-        if(ip.getBitDepth() == 8) {
-            // src
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] src_bytes = (byte[])ip.getPixels();
-
-            // dst
-            String titleDst = WindowManager.getUniqueName(titleSrc + "_CornerHarris");
-            ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
-            float[] dst_floats = (float[]) impDst.getChannelProcessor().getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, src_bytes);
-            Imgproc.cornerHarris(src_mat, dst_mat, blockSize, ksize, k, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, dst_floats);
-
-            // show
-            impDst.show();
-        }
-        else if(ip.getBitDepth() == 32) {
-            // src
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] src_floats = (float[])ip.getPixels();
-
-            // dst
-            String titleDst = WindowManager.getUniqueName(titleSrc + "_CornerHarris");
-            ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
-            float[] dst_floats = (float[]) impDst.getChannelProcessor().getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, src_floats);
-            Imgproc.cornerHarris(src_mat, dst_mat, blockSize, ksize, k, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, dst_floats);
-
-            // show
-            impDst.show();
-        }
-        else {
-            IJ.error("Wrong image format");
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_CornerHarris")) {
+            if(ip.getBitDepth() == 8) {
+                // src
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] src_bytes = (byte[])ip.getPixels();
+
+                // dst
+                String titleDst = WindowManager.getUniqueName(titleSrc + "_CornerHarris");
+                ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
+                float[] dst_floats = (float[]) impDst.getChannelProcessor().getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, src_bytes);
+                Imgproc.cornerHarris(src_mat, dst_mat, blockSize, ksize, k, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, dst_floats);
+
+                // show
+                impDst.show();
+            }
+            else if(ip.getBitDepth() == 32) {
+                // src
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] src_floats = (float[])ip.getPixels();
+
+                // dst
+                String titleDst = WindowManager.getUniqueName(titleSrc + "_CornerHarris");
+                ImagePlus impDst = new ImagePlus(titleDst, new FloatProcessor(imw, imh));
+                float[] dst_floats = (float[]) impDst.getChannelProcessor().getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, src_floats);
+                Imgproc.cornerHarris(src_mat, dst_mat, blockSize, ksize, k, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, dst_floats);
+
+                // show
+                impDst.show();
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
 }
@@ -38,7 +38,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_DistanceTransform implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS =  DOES_32 | KEEP_PREVIEW;
+    private static final int FLAGS =  DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW;
 
     /*
     Distance types for Distance Transform and M-estimators
@@ -97,7 +97,7 @@ public class OCV_DistanceTransform implements ij.plugin.filter.ExtendedPlugInFil
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -113,20 +113,22 @@ public class OCV_DistanceTransform implements ij.plugin.filter.ExtendedPlugInFil
 
     @Override
     public void run(ImageProcessor ip) {
-        // srcdst
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
-        float[] srcdst_floats = (float[])ip.getPixels();
-
-        // mat
-        Mat src_mat_32f = new Mat(imh, imw, CvType.CV_32FC1);
-        Mat src_mat_8u = new Mat(imh, imw, CvType.CV_8UC1);
-        Mat dst_mat_32f = new Mat(imh, imw, CvType.CV_32FC1);
-
-        // run
-        src_mat_32f.put(0, 0, srcdst_floats);
-        src_mat_32f.convertTo(src_mat_8u, CvType.CV_8UC1);
-        Imgproc.distanceTransform(src_mat_8u, dst_mat_32f, INT_DISTANCETYPE[indDistType], INT_DISTANCETRANSFORMMASKS[indMskSize]);
-        dst_mat_32f.get(0, 0, srcdst_floats);
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_DistanceTransform")) {
+            // srcdst
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+            float[] srcdst_floats = (float[])ip.getPixels();
+
+            // mat
+            Mat src_mat_32f = scope.get(imh, imw, CvType.CV_32FC1);
+            Mat src_mat_8u = scope.get(imh, imw, CvType.CV_8UC1);
+            Mat dst_mat_32f = scope.get(imh, imw, CvType.CV_32FC1);
+
+            // run
+            src_mat_32f.put(0, 0, srcdst_floats);
+            src_mat_32f.convertTo(src_mat_8u, CvType.CV_8UC1);
+            Imgproc.distanceTransform(src_mat_8u, dst_mat_32f, INT_DISTANCETYPE[indDistType], INT_DISTANCETRANSFORMMASKS[indMskSize]);
+            dst_mat_32f.get(0, 0, srcdst_floats);
+        }
     }
 }
@@ -35,7 +35,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_EqualizeHist implements ij.plugin.filter.ExtendedPlugInFilter {
     // constant var.
-    private static final int FLAGS = DOES_8G; // 8-bit single channel image.
+    private static final int FLAGS = DOES_8G | PARALLELIZE_STACKS; // 8-bit single channel image.
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -50,7 +50,7 @@ public class OCV_EqualizeHist implements ij.plugin.filter.ExtendedPlugInFilter {
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -66,18 +66,20 @@ public class OCV_EqualizeHist implements ij.plugin.filter.ExtendedPlugInFilter {
 
     @Override
     public void run(ImageProcessor ip) {
-        // srcdst
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
-        byte[] srcdst_bytes = (byte[])ip.getPixels();
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_EqualizeHist")) {
+            // srcdst
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+            byte[] srcdst_bytes = (byte[])ip.getPixels();
 
-        // mat
-        Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-        Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
+            // mat
+            Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+            Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
 
-        // run
-        src_mat.put(0, 0, srcdst_bytes);
-        Imgproc.equalizeHist(src_mat, dst_mat);
-        dst_mat.get(0, 0, srcdst_bytes);
+            // run
+            src_mat.put(0, 0, srcdst_bytes);
+            Imgproc.equalizeHist(src_mat, dst_mat);
+            dst_mat.get(0, 0, srcdst_bytes);
+        }
     }
 }
@@ -0,0 +1,603 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Filter chain.
+ * An ordered list of operations is applied back to back on Mats. The pixels are copied into a Mat once at the start and out of it once at the end.
+ * chain : steps separated by ';'. e.g. "GaussianBlur(5, 5, 0, 0); Threshold(0, 255, THRESH_OTSU); MorphologyEx(MORPH_OPEN, MORPH_RECT, 3, 3, 1)"
+ * <pre>
+ * GaussianBlur(ksize_x, ksize_y, sigma_x, sigma_y, borderType)
+ * MedianBlur(ksize)
+ * Threshold(thresh, maxVal, type)
+ * AdaptiveThreshold(maxValue, adaptiveMethod, thresholdType, blockSize, C)
+ * MorphologyEx(operation, shape, ksize_x, ksize_y, iterations)
+ * Canny(threshold1, threshold2, apertureSize, L2gradient)
+ * DistanceTransform(distanceType, maskSize)
+ * ConnectedComponents(connectivity)
+ * Resize(dsize_w, dsize_h, scale_factor_x, scale_factor_y, interpolation)
+ * </pre>
+ * The arguments can also be named with the fields of the dialog of each plugin (e.g. "Canny(threshold1=50, threshold2=150)"). A name which the step does not use and extra arguments are errors. Omitted arguments are the defaults of each plugin. Steps which need an 8-bit image scale the Mat from its min and max to 0-255 (the thresholds of AdaptiveThreshold and Canny are in this range).
+ * DistanceTransform and ConnectedComponents use the nonzero pixels as the foreground. Threshold uses 16-bit and 32-bit values as they are, except THRESH_OTSU and THRESH_TRIANGLE.
+ * If the type and the size of the result are the same as the source, the source is overwritten. Otherwise, the result is shown as a new image.
+ */
+public class OCV_FilterChain implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32;
+    private static final Map<String, Integer> CONSTANTS = new HashMap<>();
+
+    static {
+        CONSTANTS.put("BORDER_CONSTANT", Core.BORDER_CONSTANT);
+        CONSTANTS.put("BORDER_REPLICATE", Core.BORDER_REPLICATE);
+        CONSTANTS.put("BORDER_REFLECT", Core.BORDER_REFLECT);
+        CONSTANTS.put("BORDER_REFLECT101", Core.BORDER_REFLECT101);
+        CONSTANTS.put("BORDER_ISOLATED", Core.BORDER_ISOLATED);
+        CONSTANTS.put("THRESH_BINARY", Imgproc.THRESH_BINARY);
+        CONSTANTS.put("THRESH_BINARY_INV", Imgproc.THRESH_BINARY_INV);
+        CONSTANTS.put("THRESH_TRUNC", Imgproc.THRESH_TRUNC);
+        CONSTANTS.put("THRESH_TOZERO", Imgproc.THRESH_TOZERO);
+        CONSTANTS.put("THRESH_TOZERO_INV", Imgproc.THRESH_TOZERO_INV);
+        CONSTANTS.put("THRESH_OTSU", Imgproc.THRESH_OTSU);
+        CONSTANTS.put("THRESH_OTSU_INV", Imgproc.THRESH_OTSU + Imgproc.THRESH_BINARY_INV);
+        CONSTANTS.put("THRESH_TRIANGLE", Imgproc.THRESH_TRIANGLE);
+        CONSTANTS.put("ADAPTIVE_THRESH_MEAN_C", Imgproc.ADAPTIVE_THRESH_MEAN_C);
+        CONSTANTS.put("ADAPTIVE_THRESH_GAUSSIAN_C", Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C);
+        CONSTANTS.put("MORPH_ERODE", Imgproc.MORPH_ERODE);
+        CONSTANTS.put("MORPH_DILATE", Imgproc.MORPH_DILATE);
+        CONSTANTS.put("MORPH_OPEN", Imgproc.MORPH_OPEN);
+        CONSTANTS.put("MORPH_CLOSE", Imgproc.MORPH_CLOSE);
+        CONSTANTS.put("MORPH_GRADIENT", Imgproc.MORPH_GRADIENT);
+        CONSTANTS.put("MORPH_TOPHAT", Imgproc.MORPH_TOPHAT);
+        CONSTANTS.put("MORPH_BLACKHAT", Imgproc.MORPH_BLACKHAT);
+        CONSTANTS.put("MORPH_RECT", Imgproc.MORPH_RECT);
+        CONSTANTS.put("MORPH_CROSS", Imgproc.MORPH_CROSS);
+        CONSTANTS.put("MORPH_ELLIPSE", Imgproc.MORPH_ELLIPSE);
+        CONSTANTS.put("CV_DIST_L1", Imgproc.CV_DIST_L1);
+        CONSTANTS.put("CV_DIST_L2", Imgproc.CV_DIST_L2);
+        CONSTANTS.put("CV_DIST_C", Imgproc.CV_DIST_C);
+        CONSTANTS.put("CV_DIST_MASK_3", Imgproc.CV_DIST_MASK_3);
+        CONSTANTS.put("CV_DIST_MASK_5", Imgproc.CV_DIST_MASK_5);
+        CONSTANTS.put("CV_DIST_MASK_PRECISE", Imgproc.CV_DIST_MASK_PRECISE);
+        CONSTANTS.put("INTER_NEAREST", Imgproc.INTER_NEAREST);
+        CONSTANTS.put("INTER_LINEAR", Imgproc.INTER_LINEAR);
+        CONSTANTS.put("INTER_CUBIC", Imgproc.INTER_CUBIC);
+        CONSTANTS.put("INTER_AREA", Imgproc.INTER_AREA);
+        CONSTANTS.put("INTER_LANCZOS4", Imgproc.INTER_LANCZOS4);
+        CONSTANTS.put("INTER_LINEAR_EXACT", Imgproc.INTER_LINEAR_EXACT);
+        CONSTANTS.put("4-connected", 4);
+        CONSTANTS.put("8-connected", 8);
+    }
+
+    /**
+     * step of the chain.
+     */
+    public interface Step {
+        /**
+         * @param src source (must not be modified)
+         * @param scope scope of the Mats
+         * @return destination
+         */
+        Mat apply(Mat src, OCV__LoadLibrary.MatScope scope);
+    }
+
+    // static var.
+    private static String chain = "GaussianBlur(5, 5, 0, 0); Threshold(0, 255, THRESH_OTSU); MorphologyEx(MORPH_OPEN, MORPH_RECT, 3, 3, 1)";
+
+    // var.
+    private ImagePlus impSrc = null;
+    private List<Step> steps = null;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + " ...");
+
+        gd.addStringField("chain", chain, 60);
+        gd.addMessage("GaussianBlur, MedianBlur, Threshold, AdaptiveThreshold, MorphologyEx,\nCanny, DistanceTransform, ConnectedComponents, Resize (separated by ';')");
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            chain = gd.getNextString().trim();
+
+            try {
+                steps = parse(chain);
+            }
+            catch(IllegalArgumentException ex) {
+                IJ.error(ex.getMessage());
+                return DONE;
+            }
+
+            if(steps.isEmpty()) {
+                IJ.error("chain is empty.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        if(imp == null) {
+            IJ.noImage();
+            return DONE;
+        }
+        else {
+            impSrc = imp;
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        ImageProcessor ipDst = apply("OCV_FilterChain", steps, ip);
+
+        if(ipDst != ip) {
+            String titleDst = WindowManager.getUniqueName(impSrc.getTitle() + "_Chain");
+            new ImagePlus(titleDst, ipDst).show();
+        }
+    }
+
+    /**
+     * apply the steps to the image.
+     * @param plugin name of the plugin under which the Mats are reserved and the times are recorded
+     * @param steps steps
+     * @param ip ImageProcessor (8-bit, 16-bit or 32-bit)
+     * @return ip (overwritten) if the type of the result is the same as the source, otherwise a new ImageProcessor.
+     */
+    public static ImageProcessor apply(String plugin, List<Step> steps, ImageProcessor ip) {
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope(plugin)) {
+            long t = MyPhaseTimer.start();
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+            int type = MyMatTiler.cvType(ip);
+
+            // src
+            Mat mat = scope.get(imh, imw, type);
+            MyMatTiler.put(ip.getPixels(), mat, imw, imh);
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.TO_MAT, t);
+
+            // run
+            for(Step step : steps) {
+                mat = step.apply(mat, scope);
+            }
+
+            if(mat.type() == CvType.CV_32S) {
+                Mat dst_mat_32f = scope.get(mat.rows(), mat.cols(), CvType.CV_32F);
+                mat.convertTo(dst_mat_32f, CvType.CV_32F);
+                mat = dst_mat_32f;
+            }
+
+            t = MyPhaseTimer.lap(plugin, MyPhaseTimer.NATIVE, t);
+
+            // dst
+            ImageProcessor ipDst = ip;
+
+            if(mat.type() != type || mat.cols() != imw || mat.rows() != imh) {
+                int dstw = mat.cols();
+                int dsth = mat.rows();
+                ipDst = mat.type() == CvType.CV_8UC1 ? new ByteProcessor(dstw, dsth) : mat.type() == CvType.CV_16U ? new ShortProcessor(dstw, dsth) : new FloatProcessor(dstw, dsth);
+            }
+
+            MyMatTiler.get(mat, ipDst.getPixels(), ipDst.getWidth(), ipDst.getHeight());
+
+            if(ipDst != ip) {
+                ipDst.resetMinAndMax();
+            }
+
+            MyPhaseTimer.lap(plugin, MyPhaseTimer.FROM_MAT, t);
+            return ipDst;
+        }
+    }
+
+    /**
+     * parse the chain.
+     * @param chain steps separated by ';'. the arguments are positional or named (key=value).
+     * @return steps
+     * @throws IllegalArgumentException if the chain is wrong.
+     */
+    public static List<Step> parse(String chain) {
+        List<Step> list = new ArrayList<>();
+
+        for(String str : chain.split(";")) {
+            str = str.trim();
+
+            if(str.isEmpty()) {
+                continue;
+            }
+
+            Args args = parseArgs(str);
+            list.add(createStep(args));
+        }
+
+        return list;
+    }
+
+    /**
+     * parse the arguments of a step.
+     * @param str step. e.g. "Canny(50, threshold2=150)"
+     * @return arguments
+     * @throws IllegalArgumentException if the step is wrong.
+     */
+    static Args parseArgs(String str) {
+        str = str.trim();
+
+        int open = str.indexOf('(');
+        Args args = new Args((open < 0 ? str : str.substring(0, open)).trim(), str);
+
+        if(0 <= open) {
+            if(!str.endsWith(")")) {
+                throw args.error("')' is missing");
+            }
+
+            String inner = str.substring(open + 1, str.length() - 1).trim();
+
+            if(!inner.isEmpty()) {
+                for(String token : inner.split(",")) {
+                    args.add(token.trim());
+                }
+            }
+        }
+
+        return args;
+    }
+
+    /**
+     * parse a step written in the same way as the options of a macro.
+     * e.g. "OCV_GaussianBlur ksize_x=5 ksize_y=5 sigma_x=0 sigma_y=0 borderType=BORDER_REFLECT"
+     * @param line name of the plugin (or the step) followed by the fields of the dialog
+     * @return step
+     * @throws IllegalArgumentException if the line is wrong.
+     */
+    public static Step parseStep(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        Args args = new Args(tokens[0], line.trim());
+
+        for(int i = 1; i < tokens.length; i++) {
+            // a checkbox without value is checked.
+            args.add(tokens[i].contains("=") ? tokens[i] : tokens[i] + "=true");
+        }
+
+        // recorded when a stack is processed
+        args.ignore("stack");
+        return createStep(args);
+    }
+
+    /**
+     * arguments of a step.
+     */
+    static class Args {
+        final String name;
+        private final String str;
+        private final List<Double> values = new ArrayList<>();
+        private final Map<String, Double> named = new HashMap<>();
+        private final Set<String> used = new HashSet<>();
+        private int numUsed = 0;
+
+        Args(String name, String str) {
+            this.name = name;
+            this.str = str;
+        }
+
+        void add(String token) {
+            int eq = token.indexOf('=');
+
+            if(eq < 0) {
+                values.add(toValue(token));
+            }
+            else {
+                named.put(token.substring(0, eq).trim().toLowerCase(Locale.US), toValue(token.substring(eq + 1).trim()));
+            }
+        }
+
+        double get(int i, String key, double def) {
+            used.add(key.toLowerCase(Locale.US));
+            numUsed = Math.max(numUsed, i + 1);
+
+            Double value = named.get(key.toLowerCase(Locale.US));
+
+            if(value != null) {
+                return value;
+            }
+
+            return i < values.size() ? values.get(i) : def;
+        }
+
+        // names which may be given but are not used by the step (e.g. the output options of the dialog)
+        void ignore(String... keys) {
+            for(String key : keys) {
+                used.add(key.toLowerCase(Locale.US));
+            }
+        }
+
+        // reject the arguments which the step did not get
+        void checkUnused() {
+            for(String key : named.keySet()) {
+                if(!used.contains(key)) {
+                    throw error("Unknown argument '" + key + "'");
+                }
+            }
+
+            if(numUsed < values.size()) {
+                throw error("Too many arguments");
+            }
+        }
+
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException(msg + " : " + str);
+        }
+
+        private double toValue(String token) {
+            if(token.startsWith("[") && token.endsWith("]")) {
+                token = token.substring(1, token.length() - 1);
+            }
+
+            Integer constant = CONSTANTS.get(token);
+
+            if(constant != null) {
+                return constant;
+            }
+
+            if(token.equalsIgnoreCase("true")) {
+                return 1;
+            }
+
+            if(token.equalsIgnoreCase("false")) {
+                return 0;
+            }
+
+            try {
+                return Double.parseDouble(token);
+            }
+            catch(NumberFormatException ex) {
+                throw error("Wrong argument '" + token + "'");
+            }
+        }
+    }
+
+    private static Step createStep(Args args) {
+        Step step = newStep(args.name, args);
+        args.checkUnused();
+        return step;
+    }
+
+    private static Step newStep(String name, Args args) {
+        switch(name.startsWith("OCV_") ? name.substring(4) : name) {
+            case "GaussianBlur": {
+                int ksize_x = (int)args.get(0, "ksize_x", 3);
+                int ksize_y = (int)args.get(1, "ksize_y", 3);
+                double sigma_x = args.get(2, "sigma_x", 0);
+                double sigma_y = args.get(3, "sigma_y", 0);
+                int borderType = (int)args.get(4, "borderType", Core.BORDER_REFLECT);
+
+                if(ksize_x < 0 || ksize_y < 0 || ksize_x % 2 == 0 || ksize_y % 2 == 0) {
+                    throw args.error("ksize_* must be odd");
+                }
+
+                Size ksize = new Size(ksize_x, ksize_y);
+
+                return (src, scope) -> {
+                    Mat dst = scope.get(src.rows(), src.cols(), src.type());
+                    Imgproc.GaussianBlur(src, dst, ksize, sigma_x, sigma_y, borderType);
+                    return dst;
+                };
+            }
+            case "MedianBlur": {
+                int ksize = (int)args.get(0, "ksize", 3);
+
+                if(ksize < 3 || ksize % 2 == 0) {
+                    throw args.error("'3 <= ksize' and odd ksize are necessary");
+                }
+
+                return (src, scope) -> {
+                    Mat src_mat = 5 < ksize ? to8U(src, scope) : src;
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), src_mat.type());
+                    Imgproc.medianBlur(src_mat, dst, ksize);
+                    return dst;
+                };
+            }
+            case "Threshold": {
+                double thresh = args.get(0, "thresh", 125);
+                double maxVal = args.get(1, "maxval", 255);
+                int type = (int)args.get(2, "adaptiveMethod", Imgproc.THRESH_BINARY);
+                boolean auto = (type & (Imgproc.THRESH_OTSU | Imgproc.THRESH_TRIANGLE)) != 0;
+
+                return (src, scope) -> {
+                    Mat src_mat = auto ? to8U(src, scope) : src;
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), src_mat.type());
+                    Imgproc.threshold(src_mat, dst, thresh, maxVal, type);
+                    return dst;
+                };
+            }
+            case "AdaptiveThreshold": {
+                double maxValue = args.get(0, "maxValue", 255);
+                int method = (int)args.get(1, "adaptiveMethod", Imgproc.ADAPTIVE_THRESH_MEAN_C);
+                int type = (int)args.get(2, "thresholdType", Imgproc.THRESH_BINARY);
+                int blockSize = (int)args.get(3, "blockSize", 5);
+                double subC = args.get(4, "constSubtractedFromMean", 10);
+
+                if(blockSize <= 1 || blockSize % 2 == 0) {
+                    throw args.error("'1 < blockSize' and odd blockSize are necessary");
+                }
+
+                return (src, scope) -> {
+                    Mat src_mat = to8U(src, scope);
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), CvType.CV_8UC1);
+                    Imgproc.adaptiveThreshold(src_mat, dst, maxValue, method, type, blockSize, subC);
+                    return dst;
+                };
+            }
+            case "MorphologyEx": {
+                int op = (int)args.get(0, "operation", Imgproc.MORPH_ERODE);
+                int shape = (int)args.get(1, "shape", Imgproc.MORPH_RECT);
+                int ksize_x = (int)args.get(2, "ksize_x", 3);
+                int ksize_y = (int)args.get(3, "ksize_y", 3);
+                int iterations = (int)args.get(4, "iterations", 1);
+
+                if(ksize_x < 0 || ksize_y < 0 || ksize_x % 2 == 0 || ksize_y % 2 == 0) {
+                    throw args.error("ksize_* must be odd");
+                }
+
+                if(iterations < 1) {
+                    throw args.error("'1 <= iterations' is necessary");
+                }
+
+                Size ksize = new Size(ksize_x, ksize_y);
+
+                return (src, scope) -> {
+                    Mat kernel = scope.add(Imgproc.getStructuringElement(shape, ksize));
+                    Mat dst = scope.get(src.rows(), src.cols(), src.type());
+                    Imgproc.morphologyEx(src, dst, op, kernel, new Point(-1, -1), iterations);
+                    return dst;
+                };
+            }
+            case "Canny": {
+                double thr1 = args.get(0, "threshold1", 0);
+                double thr2 = args.get(1, "threshold2", 0);
+                int apertureSize = (int)args.get(2, "apertureSize", 3);
+                boolean l2grad = args.get(3, "L2gradient", 0) != 0;
+
+                if(apertureSize != 3 && apertureSize != 5 && apertureSize != 7) {
+                    throw args.error("apertureSize must be 3, 5 or 7");
+                }
+
+                return (src, scope) -> {
+                    Mat src_mat = to8U(src, scope);
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), CvType.CV_8UC1);
+                    Imgproc.Canny(src_mat, dst, thr1, thr2, apertureSize, l2grad);
+                    return dst;
+                };
+            }
+            case "DistanceTransform": {
+                int distanceType = (int)args.get(0, "distanceType", Imgproc.CV_DIST_L1);
+                int maskSize = (int)args.get(1, "maskSize", Imgproc.CV_DIST_MASK_3);
+
+                return (src, scope) -> {
+                    Mat src_mat = toMask(src, scope);
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), CvType.CV_32FC1);
+                    Imgproc.distanceTransform(src_mat, dst, distanceType, maskSize);
+                    return dst;
+                };
+            }
+            case "ConnectedComponents":
+            case "ConnectedComponentsWithStats": {
+                int connectivity = (int)args.get(0, "connectivity", 8);
+
+                args.ignore("enable_output_labeled_image", "enable_select_roi_by_dowand");
+
+                if(connectivity != 4 && connectivity != 8) {
+                    throw args.error("connectivity must be 4 or 8");
+                }
+
+                return (src, scope) -> {
+                    Mat src_mat = toMask(src, scope);
+                    Mat dst = scope.get(src_mat.rows(), src_mat.cols(), CvType.CV_32S);
+                    Imgproc.connectedComponents(src_mat, dst, connectivity, CvType.CV_32S);
+                    return dst;
+                };
+            }
+            case "Resize": {
+                int dsize_w = (int)args.get(0, "dsize_w", 0);
+                int dsize_h = (int)args.get(1, "dsize_h", 0);
+                double scale_x = args.get(2, "scale_factor_x", 0);
+                double scale_y = args.get(3, "scale_factor_y", 0);
+                int interpolation = (int)args.get(4, "interpolation", Imgproc.INTER_NEAREST);
+
+                if(!(0 < dsize_w && 0 < dsize_h) && !(0 < scale_x && 0 < scale_y)) {
+                    throw args.error("'0 < dsize_*' or '0 < scale_factor_*' is necessary");
+                }
+
+                Size dsize = new Size(Math.max(0, dsize_w), Math.max(0, dsize_h));
+
+                return (src, scope) -> {
+                    Mat dst = scope.add(new Mat());
+                    Imgproc.resize(src, dst, dsize, scale_x, scale_y, interpolation);
+                    return dst;
+                };
+            }
+            default:
+                throw args.error("Unknown step '" + name + "'");
+        }
+    }
+
+    // 8-bit Mat scaled from the min and max of src (saturation loses all the values above 255). shared with OCUtil_ParameterSweep.
+    static Mat to8U(Mat src, OCV__LoadLibrary.MatScope scope) {
+        if(src.type() == CvType.CV_8UC1) {
+            return src;
+        }
+
+        Core.MinMaxLocResult mm = Core.minMaxLoc(src);
+        double alpha = mm.minVal < mm.maxVal ? 255.0 / (mm.maxVal - mm.minVal) : 0;
+        Mat dst = scope.get(src.rows(), src.cols(), CvType.CV_8UC1);
+        src.convertTo(dst, CvType.CV_8U, alpha, -mm.minVal * alpha);
+        return dst;
+    }
+
+    // 8-bit mask of the nonzero pixels (255 or 0)
+    private static Mat toMask(Mat src, OCV__LoadLibrary.MatScope scope) {
+        if(src.type() == CvType.CV_8UC1) {
+            return src;
+        }
+
+        Mat dst = scope.get(src.rows(), src.cols(), CvType.CV_8UC1);
+        Core.compare(src, new Scalar(0), dst, Core.CMP_NE);
+        return dst;
+    }
+}
@@ -134,7 +134,7 @@ public class OCV_FitEllipse implements ExtendedPlugInFilter {
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
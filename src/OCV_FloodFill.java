@@ -138,7 +138,7 @@ public class OCV_FloodFill implements ij.plugin.filter.ExtendedPlugInFilter, Dia
 
     @Override
     public int setup(String string, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
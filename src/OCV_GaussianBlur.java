@@ -40,7 +40,7 @@ import org.opencv.core.Size;
  */
 public class OCV_GaussianBlur implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | KEEP_PREVIEW;
+    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW;
 
     /*
      Various border types, image boundaries are denoted with '|'
@@ -65,6 +65,8 @@ public class OCV_GaussianBlur implements ij.plugin.filter.ExtendedPlugInFilter,
 
     // var.
     private Size ksize = null;
+    private ImagePlus impSrc = null;
+    private final MyPreview preview = new MyPreview("OCV_GaussianBlur");
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -78,13 +80,15 @@ public class OCV_GaussianBlur implements ij.plugin.filter.ExtendedPlugInFilter,
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
 
+        preview.start(imp);
         gd.showDialog();
+        int flags = preview.stop(FLAGS);
 
         if(gd.wasCanceled()) {
             return DONE;
         }
         else {
-            return IJ.setupDialog(imp, FLAGS);
+            return IJ.setupDialog(imp, flags);
         }
     }
 
@@ -124,7 +128,7 @@ public class OCV_GaussianBlur implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -134,59 +138,76 @@ public class OCV_GaussianBlur implements ij.plugin.filter.ExtendedPlugInFilter,
             return DONE;
         }
         else {
+            impSrc = imp;
             return FLAGS;
         }
     }
 
     @Override
     public void run(ImageProcessor ip) {
-        if(ip.getBitDepth() == 8) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_bytes);
+        if(preview.run(ip, getHalo(), (src_mat, dst_mat, scale) -> Imgproc.GaussianBlur(src_mat, dst_mat, MyPreview.scaleOdd(ksize, scale), sigma_x * scale, sigma_y * scale, INT_BORDERTYPE[indBorderType]))) {
+            return;
         }
-        else if(ip.getBitDepth() == 16) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            short[] srcdst_shorts = (short[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_16S);
-
-            // run
-            src_mat.put(0, 0, srcdst_shorts);
-            Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_shorts);
-        }
-        else if(ip.getBitDepth() == 32) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] srcdst_floats = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, srcdst_floats);
-            Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
-            dst_mat.get(0, 0, srcdst_floats);
+
+        if(MyMatTiler.isTiled(ip)) {
+            MyMatTiler.run("OCV_GaussianBlur", ip, getHalo(), (src_mat, dst_mat) -> Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]));
+            return;
         }
-        else {
-            IJ.error("Wrong image format");
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_GaussianBlur")) {
+            if(ip.getBitDepth() == 8) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = OCV__LoadLibrary.GetCachedMat(impSrc, ip, scope);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_bytes);
+                OCV__LoadLibrary.StoreCachedMat(impSrc, ip, dst_mat, scope);
+            }
+            else if(ip.getBitDepth() == 16) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                short[] srcdst_shorts = (short[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_16U);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_16U);
+
+                // run
+                src_mat.put(0, 0, srcdst_shorts);
+                Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_shorts);
+            }
+            else if(ip.getBitDepth() == 32) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] srcdst_floats = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, srcdst_floats);
+                Imgproc.GaussianBlur(src_mat, dst_mat, ksize, sigma_x, sigma_y, INT_BORDERTYPE[indBorderType]);
+                dst_mat.get(0, 0, srcdst_floats);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
+
+    // radius of the kernel
+    private int getHalo() {
+        return Math.max(ksize_x, ksize_y) / 2;
+    }
 }
@@ -117,7 +117,7 @@ public class OCV_GetRotationMatrix2D implements ExtendedPlugInFilter, DialogList
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
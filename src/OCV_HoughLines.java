@@ -156,7 +156,7 @@ public class OCV_HoughLines implements ExtendedPlugInFilter, DialogListener {
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -177,17 +177,28 @@ public class OCV_HoughLines implements ExtendedPlugInFilter, DialogListener {
         int imh = ip.getHeight();
         byte[] src_ar = (byte[]) ip.getPixels();
 
-        // mat
-        Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-        Mat dst_lines = new Mat();
+        // cached result (lines)
+        String key = MyResultCache.key(this, ip);
+        Object[] cached = MyResultCache.get(key);
+        Mat dst_lines;
 
-        // run
-        src_mat.put(0, 0, src_ar);
+        if(cached != null) {
+            dst_lines = (Mat)cached[0];
+        }
+        else {
+            // mat
+            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
+            dst_lines = new Mat();
 
-        double resAng = CV_PI / resAngFact;
-        double minTheta = CV_PI / 360.0 * minDeg;
-        double maxTheta = CV_PI / 360.0 * maxDeg;
-        Imgproc.HoughLines(src_mat, dst_lines, resDist, resAng, minVotes, srn, stn, minTheta, maxTheta);
+            // run
+            src_mat.put(0, 0, src_ar);
+
+            double resAng = CV_PI / resAngFact;
+            double minTheta = CV_PI / 360.0 * minDeg;
+            double maxTheta = CV_PI / 360.0 * maxDeg;
+            Imgproc.HoughLines(src_mat, dst_lines, resDist, resAng, minVotes, srn, stn, minTheta, maxTheta);
+            MyResultCache.put(key, dst_lines);
+        }
 
         // fin
         showData(dst_lines, imw, imh);
@@ -134,7 +134,7 @@ public class OCV_MatchTemplate implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -164,19 +164,17 @@ public class OCV_MatchTemplate implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public void run(ImageProcessor ip) {
+        long t = MyPhaseTimer.start();
+
         // src
         byte[] arr_src = (byte[])imp_src.getChannelProcessor().getPixels();
         int imw_src = imp_src.getWidth();
         int imh_src = imp_src.getHeight();
-        Mat mat_src = new Mat(imh_src, imw_src, CvType.CV_8UC1);
-        mat_src.put(0, 0, arr_src);
 
         // tmp
         byte[] arr_tmp = (byte[])imp_tmp.getChannelProcessor().getPixels();
         int imw_tmp = imp_tmp.getWidth();
         int imh_tmp = imp_tmp.getHeight();
-        Mat mat_tmp = new Mat(imh_tmp, imw_tmp, CvType.CV_8UC1);
-        mat_tmp.put(0, 0, arr_tmp);
 
         // dst
         String title_dst = WindowManager.getUniqueName(title_src + "_MatchTemplate");
@@ -184,11 +182,31 @@ public class OCV_MatchTemplate implements ij.plugin.filter.ExtendedPlugInFilter,
         int imh_dst = imh_src - imh_tmp + 1;
         ImagePlus imp_dst = new ImagePlus(title_dst, new FloatProcessor(imw_dst, imh_dst));
         float[] arr_dst = (float[]) imp_dst.getChannelProcessor().getPixels();
-        Mat mat_dst = new Mat();
 
-        // run
-        Imgproc.matchTemplate(mat_src, mat_tmp, mat_dst, TYPE_VAL[ind_type]);
-        mat_dst.get(0, 0, arr_dst);
+        // cached result (raw result of matchTemplate)
+        String key = MyResultCache.key(this, imp_src.getChannelProcessor(), imp_tmp.getChannelProcessor());
+        Object[] cached = MyResultCache.get(key);
+
+        if(cached != null) {
+            System.arraycopy((float[])cached[0], 0, arr_dst, 0, arr_dst.length);
+            t = MyPhaseTimer.lap("OCV_MatchTemplate", MyPhaseTimer.FROM_MAT, t);
+        }
+        else {
+            Mat mat_src = new Mat(imh_src, imw_src, CvType.CV_8UC1);
+            mat_src.put(0, 0, arr_src);
+            Mat mat_tmp = new Mat(imh_tmp, imw_tmp, CvType.CV_8UC1);
+            mat_tmp.put(0, 0, arr_tmp);
+            Mat mat_dst = new Mat();
+            t = MyPhaseTimer.lap("OCV_MatchTemplate", MyPhaseTimer.TO_MAT, t);
+
+            // run
+            Imgproc.matchTemplate(mat_src, mat_tmp, mat_dst, TYPE_VAL[ind_type]);
+            t = MyPhaseTimer.lap("OCV_MatchTemplate", MyPhaseTimer.NATIVE, t);
+            mat_dst.get(0, 0, arr_dst);
+            MyPhaseTimer.lap("OCV_MatchTemplate", MyPhaseTimer.FROM_MAT, t);
+            MyResultCache.put(key, arr_dst);
+        }
+
         imp_dst.show();
 
         if(TYPE_VAL[ind_type] == Imgproc.TM_SQDIFF_NORMED) {
@@ -199,12 +217,16 @@ public class OCV_MatchTemplate implements ij.plugin.filter.ExtendedPlugInFilter,
 
         // show data
         if(enResult) {
+            t = MyPhaseTimer.start();
+
             if(enSearchMax) {
                 showData_enSearchMaxPoint(imp_dst, arr_dst, thr_res, imw_tmp, imh_tmp);
             }
             else {
                 showData(arr_dst, imw_dst, imh_dst, imw_tmp, imh_tmp);
             }
+
+            MyPhaseTimer.lap("OCV_MatchTemplate", MyPhaseTimer.RESULTS, t);
         }
     }
 
@@ -38,13 +38,14 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_MedianBlur implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_16 | DOES_32 | KEEP_PREVIEW;
+    private static final int FLAGS = DOES_8G | DOES_RGB | DOES_16 | DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW;
 
     // staic var.
     private static int ksize = 3; // Blurring kernel size of x
 
     // var.
     private int bitDepth;
+    private final MyPreview preview = new MyPreview("OCV_MedianBlur");
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -55,13 +56,15 @@ public class OCV_MedianBlur implements ij.plugin.filter.ExtendedPlugInFilter, Di
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
 
+        preview.start(imp);
         gd.showDialog();
+        int flags = preview.stop(FLAGS);
 
         if(gd.wasCanceled()) {
             return DONE;
         }
         else {
-            return IJ.setupDialog(imp, FLAGS);
+            return IJ.setupDialog(imp, flags);
         }
     }
 
@@ -95,7 +98,7 @@ public class OCV_MedianBlur implements ij.plugin.filter.ExtendedPlugInFilter, Di
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -111,68 +114,84 @@ public class OCV_MedianBlur implements ij.plugin.filter.ExtendedPlugInFilter, Di
 
     @Override
     public void run(ImageProcessor ip) {
-        if(bitDepth == 8) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
-            dst_mat.get(0, 0, srcdst_bytes);
+        if(preview.run(ip, getHalo(), (src_mat, dst_mat, scale) -> Imgproc.medianBlur(src_mat, dst_mat, MyPreview.scaleOdd(ksize, scale, 3)))) {
+            return;
         }
-        else if(bitDepth == 16) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            short[] srcdst_shorts = (short[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_16S);
-
-            // run
-            src_mat.put(0, 0, srcdst_shorts);
-            Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
-            dst_mat.get(0, 0, srcdst_shorts);
-        }
-        else if(bitDepth == 24) {
-            // dst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            int[] srcdst_ints = (int[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC3);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC3);
-
-            // run
-            OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
-            Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
-            OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
-        }
-        else if(bitDepth == 32) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] srcdst_floats = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, srcdst_floats);
-            Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
-            dst_mat.get(0, 0, srcdst_floats);
+
+        if(MyMatTiler.isTiled(ip)) {
+            MyMatTiler.run("OCV_MedianBlur", ip, getHalo(), (src_mat, dst_mat) -> Imgproc.medianBlur(src_mat, dst_mat, (int)ksize));
+            return;
         }
-        else {
-            IJ.error("Wrong image format");
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_MedianBlur")) {
+            if(bitDepth == 8) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC1);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                src_mat.put(0, 0, srcdst_bytes);
+                Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
+                dst_mat.get(0, 0, srcdst_bytes);
+            }
+            else if(bitDepth == 16) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                short[] srcdst_shorts = (short[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_16U);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_16U);
+
+                // run
+                src_mat.put(0, 0, srcdst_shorts);
+                Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
+                dst_mat.get(0, 0, srcdst_shorts);
+            }
+            else if(bitDepth == 24) {
+                // dst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                int[] srcdst_ints = (int[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC3);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC3);
+
+                // run
+                OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
+                Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
+                OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+            }
+            else if(bitDepth == 32) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] srcdst_floats = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, srcdst_floats);
+                Imgproc.medianBlur(src_mat, dst_mat, (int)ksize);
+                dst_mat.get(0, 0, srcdst_floats);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
+
+    // radius of the kernel
+    private int getHalo() {
+        return ksize / 2;
+    }
 }
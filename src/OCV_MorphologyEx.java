@@ -40,7 +40,7 @@ import org.opencv.core.Size;
  */
 public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | DOES_RGB | KEEP_PREVIEW;
+    private static final int FLAGS = DOES_8G | DOES_16 | DOES_32 | DOES_RGB | PARALLELIZE_STACKS | KEEP_PREVIEW;
 
     /*
      type of morphological operation
@@ -76,8 +76,9 @@ public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter,
     private static int indShapeType = 0; // shape type
 
     // var.
-    private Mat kernel = null;
     private Point anchor = null;
+    private ImagePlus impSrc = null;
+    private final MyPreview preview = new MyPreview("OCV_MorphologyEx");
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -91,13 +92,15 @@ public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter,
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
 
+        preview.start(imp);
         gd.showDialog();
+        int flags = preview.stop(FLAGS);
 
         if(gd.wasCanceled()) {
             return DONE;
         }
         else {
-            return IJ.setupDialog(imp, FLAGS);
+            return IJ.setupDialog(imp, flags);
         }
     }
 
@@ -124,9 +127,6 @@ public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter,
             return false;
         }
 
-        Size ksize = new Size(ksize_x, ksize_y);
-        kernel = Imgproc.getStructuringElement(INT_SHAPERTYPE[indShapeType], ksize);
-
         anchor = new Point(-1, -1);
 
         IJ.showStatus("OCV_MorphologyEx");
@@ -140,7 +140,7 @@ public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter,
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -150,74 +150,106 @@ public class OCV_MorphologyEx implements ij.plugin.filter.ExtendedPlugInFilter,
             return DONE;
         }
         else {
+            impSrc = imp;
             return FLAGS;
         }
     }
 
     @Override
     public void run(ImageProcessor ip) {
-        if(ip.getBitDepth() == 8) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
-            dst_mat.get(0, 0, srcdst_bytes);
-        }
-        else if(ip.getBitDepth() == 16) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            short[] srcdst_shorts = (short[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_16S);
-
-            // run
-            src_mat.put(0, 0, srcdst_shorts);
-            Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
-            dst_mat.get(0, 0, srcdst_shorts);
+        // The kernel belongs to each call, because the preview and the workers of a stack run at the same time.
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_MorphologyEx")) {
+            run(ip, scope.add(Imgproc.getStructuringElement(INT_SHAPERTYPE[indShapeType], new Size(ksize_x, ksize_y))));
         }
-        else if(ip.getBitDepth() == 32) {
-            // srcdst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            float[] srcdst_floats = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, srcdst_floats);
-            Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
-            dst_mat.get(0, 0, srcdst_floats);
+    }
+
+    private void run(ImageProcessor ip, Mat kernel) {
+        if(preview.run(ip, getHalo(), (src_mat, dst_mat, scale) -> {
+            Mat k = scale == 1.0 ? kernel : Imgproc.getStructuringElement(INT_SHAPERTYPE[indShapeType], MyPreview.scaleOdd(new Size(ksize_x, ksize_y), scale));
+            Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], k, anchor, iterations);
+
+            if(k != kernel) {
+                k.release();
+            }
+        })) {
+            return;
         }
-        else if(ip.getBitDepth() == 24) {
-            // dst
-            int imw = ip.getWidth();
-            int imh = ip.getHeight();
-            int[] srcdst_ints = (int[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC3);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC3);
-
-            // run
-            OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
-            Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
-            OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+
+        if(MyMatTiler.isTiled(ip)) {
+            MyMatTiler.run("OCV_MorphologyEx", ip, getHalo(), (src_mat, dst_mat) -> Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations));
+            return;
         }
-        else {
-            IJ.error("Wrong image format");
+
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_MorphologyEx")) {
+            if(ip.getBitDepth() == 8) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = OCV__LoadLibrary.GetCachedMat(impSrc, ip, scope);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
+                dst_mat.get(0, 0, srcdst_bytes);
+                OCV__LoadLibrary.StoreCachedMat(impSrc, ip, dst_mat, scope);
+            }
+            else if(ip.getBitDepth() == 16) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                short[] srcdst_shorts = (short[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_16U);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_16U);
+
+                // run
+                src_mat.put(0, 0, srcdst_shorts);
+                Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
+                dst_mat.get(0, 0, srcdst_shorts);
+            }
+            else if(ip.getBitDepth() == 32) {
+                // srcdst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                float[] srcdst_floats = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, srcdst_floats);
+                Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
+                dst_mat.get(0, 0, srcdst_floats);
+            }
+            else if(ip.getBitDepth() == 24) {
+                // dst
+                int imw = ip.getWidth();
+                int imh = ip.getHeight();
+                int[] srcdst_ints = (int[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_8UC3);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC3);
+
+                // run
+                OCV__LoadLibrary.intarray2mat(srcdst_ints, src_mat, imw, imh);
+                Imgproc.morphologyEx(src_mat, dst_mat, INT_OPERATION[indOperation], kernel, anchor, iterations);
+                OCV__LoadLibrary.mat2intarray(dst_mat, srcdst_ints, imw, imh);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
+
+    // radius of the kernel
+    private int getHalo() {
+        // Opening, closing and so on apply erosion and dilation 'iterations' times each.
+        return Math.max(ksize_x, ksize_y) / 2 * 2 * iterations;
+    }
 }
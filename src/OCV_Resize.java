@@ -146,7 +146,7 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -165,7 +165,20 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
     @Override
     public void run(ImageProcessor ip) {
         Size dsize = new Size(dsize_w, dsize_h);
+        long dst_pixels = dsize.area() != 0 ? (long)dsize.area() : Math.round(ip.getWidth() * scale_w) * Math.round(ip.getHeight() * scale_h);
+        long bytes = ((long)ip.getWidth() * ip.getHeight() + dst_pixels) * CvType.ELEM_SIZE(MyMatTiler.cvType(ip));
 
+        MyNativeMemory.Reservation res = MyNativeMemory.reserve("OCV_Resize", bytes);
+
+        try {
+            resize(ip, dsize);
+        }
+        finally {
+            res.close();
+        }
+    }
+
+    private void resize(ImageProcessor ip, Size dsize) {
         if(ip.getBitDepth() == 8) {
             // src
             int imw = ip.getWidth();
@@ -188,6 +201,8 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
             src_mat.put(0, 0, src_byte);
             Imgproc.resize(src_mat, dst_mat, dsize, scale_w, scale_h, flags);
             dst_mat.get(0, 0, dst_byte);
+            src_mat.release();
+            dst_mat.release();
 
             // show
             impDst.show();
@@ -204,8 +219,8 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
             short[] dst_short = (short[]) impDst.getChannelProcessor().getPixels();
 
             // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat((int)dsize.width, (int)dsize.height, CvType.CV_16S);
+            Mat src_mat = new Mat(imh, imw, CvType.CV_16U);
+            Mat dst_mat = new Mat((int)dsize.width, (int)dsize.height, CvType.CV_16U);
 
             // flag
             int flags = INT_INTERPOLATION[indInterpolation];
@@ -214,6 +229,8 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
             src_mat.put(0, 0, src_short);
             Imgproc.resize(src_mat, dst_mat, dsize, scale_w, scale_h, flags);
             dst_mat.get(0, 0, dst_short);
+            src_mat.release();
+            dst_mat.release();
 
             // show
             impDst.show();
@@ -240,6 +257,8 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
             OCV__LoadLibrary.intarray2mat(src_int, src_mat, imw, imh);
             Imgproc.resize(src_mat, dst_mat, dsize, scale_w, scale_h, flags);
             OCV__LoadLibrary.mat2intarray(dst_mat, dst_int, (int)dsize.width, (int)dsize.height);
+            src_mat.release();
+            dst_mat.release();
 
             // show
             impDst.show();
@@ -266,6 +285,8 @@ public class OCV_Resize implements ExtendedPlugInFilter, DialogListener {
             src_mat.put(0, 0, src_float);
             Imgproc.resize(src_mat, dst_mat, dsize, scale_w, scale_h, flags);
             dst_mat.get(0, 0, dst_float);
+            src_mat.release();
+            dst_mat.release();
 
             // show
             impDst.show();
@@ -39,7 +39,7 @@ import org.opencv.imgproc.Imgproc;
  */
 public class OCV_Threshold implements ij.plugin.filter.ExtendedPlugInFilter, DialogListener {
     // constant var.
-    private static final int FLAGS = DOES_8G | DOES_32 | KEEP_PREVIEW;
+    private static final int FLAGS = DOES_8G | DOES_32 | PARALLELIZE_STACKS | KEEP_PREVIEW;
     private static final int[] INT_TYPE = { Imgproc.THRESH_BINARY, Imgproc.THRESH_BINARY_INV, Imgproc.THRESH_TRUNC, Imgproc.THRESH_TOZERO, Imgproc.THRESH_TOZERO_INV, Imgproc.THRESH_OTSU, Imgproc.THRESH_OTSU + Imgproc.THRESH_BINARY_INV, Imgproc.THRESH_TRIANGLE };
     private static final String[] STR_TYPE = { "THRESH_BINARY", "THRESH_BINARY_INV", "THRESH_TRUNC", "THRESH_TOZERO", "THRESH_TOZERO_INV" , "THRESH_OTSU", "THRESH_OTSU_INV", "THRESH_TRIANGLE"};
     private static final float UBYTE_MAX = 255;
@@ -51,6 +51,7 @@ public class OCV_Threshold implements ij.plugin.filter.ExtendedPlugInFilter, Dia
 
     // var.
     private int bitDepth = 0;
+    private ImagePlus impSrc = null;
 
     @Override
     public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
@@ -117,7 +118,7 @@ public class OCV_Threshold implements ij.plugin.filter.ExtendedPlugInFilter, Dia
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -128,43 +129,46 @@ public class OCV_Threshold implements ij.plugin.filter.ExtendedPlugInFilter, Dia
         }
         else {
             bitDepth = imp.getBitDepth();
+            impSrc = imp;
             return FLAGS;
         }
     }
 
     @Override
     public void run(ImageProcessor ip) {
-        int imw = ip.getWidth();
-        int imh = ip.getHeight();
-
-        if(ip.getBitDepth() == 8) {
-            // srcdst
-            byte[] srcdst_bytes = (byte[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_8UC1);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_8UC1);
-
-            // run
-            src_mat.put(0, 0, srcdst_bytes);
-            Imgproc.threshold(src_mat, dst_mat, thresh, maxVal, INT_TYPE[idxType]);
-            dst_mat.get(0, 0, srcdst_bytes);
-        }
-        else if(ip.getBitDepth() == 32) {
-            // srcdst
-            float[] srcdst_floats = (float[])ip.getPixels();
-
-            // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_32F);
-            Mat dst_mat = new Mat(imh, imw, CvType.CV_32F);
-
-            // run
-            src_mat.put(0, 0, srcdst_floats);
-            Imgproc.threshold(src_mat, dst_mat, thresh, maxVal, INT_TYPE[idxType]);
-            dst_mat.get(0, 0, srcdst_floats);
-        }
-        else {
-            IJ.error("Wrong image format");
+        try(OCV__LoadLibrary.MatScope scope = new OCV__LoadLibrary.MatScope("OCV_Threshold")) {
+            int imw = ip.getWidth();
+            int imh = ip.getHeight();
+
+            if(ip.getBitDepth() == 8) {
+                // srcdst
+                byte[] srcdst_bytes = (byte[])ip.getPixels();
+
+                // mat
+                Mat src_mat = OCV__LoadLibrary.GetCachedMat(impSrc, ip, scope);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_8UC1);
+
+                // run
+                Imgproc.threshold(src_mat, dst_mat, thresh, maxVal, INT_TYPE[idxType]);
+                dst_mat.get(0, 0, srcdst_bytes);
+                OCV__LoadLibrary.StoreCachedMat(impSrc, ip, dst_mat, scope);
+            }
+            else if(ip.getBitDepth() == 32) {
+                // srcdst
+                float[] srcdst_floats = (float[])ip.getPixels();
+
+                // mat
+                Mat src_mat = scope.get(imh, imw, CvType.CV_32F);
+                Mat dst_mat = scope.get(imh, imw, CvType.CV_32F);
+
+                // run
+                src_mat.put(0, 0, srcdst_floats);
+                Imgproc.threshold(src_mat, dst_mat, thresh, maxVal, INT_TYPE[idxType]);
+                dst_mat.get(0, 0, srcdst_floats);
+            }
+            else {
+                IJ.error("Wrong image format");
+            }
         }
     }
 }
@@ -162,7 +162,7 @@ public class OCV_WarpPolar implements ExtendedPlugInFilter, DialogListener {
 
     @Override
     public int setup(String arg0, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
@@ -228,8 +228,8 @@ public class OCV_WarpPolar implements ExtendedPlugInFilter, DialogListener {
             short[] dst_short = (short[]) impDst.getChannelProcessor().getPixels();
 
             // mat
-            Mat src_mat = new Mat(imh, imw, CvType.CV_16S);
-            Mat dst_mat = new Mat(dest_w, dest_h, CvType.CV_16S);
+            Mat src_mat = new Mat(imh, imw, CvType.CV_16U);
+            Mat dst_mat = new Mat(dest_w, dest_h, CvType.CV_16U);
 
             // flag
             int flags = INT_MODE[indMode] + INT_INTERPOLATION[indInterpolation] + (enInverse ? Imgproc.WARP_INVERSE_MAP : 0);
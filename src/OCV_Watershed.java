@@ -104,7 +104,7 @@ public class OCV_Watershed implements ij.plugin.filter.ExtendedPlugInFilter, Dia
 
     @Override
     public int setup(String arg, ImagePlus imp) {
-        if(!OCV__LoadLibrary.isLoad()) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
             IJ.error("Library is not loaded.");
             return DONE;
         }
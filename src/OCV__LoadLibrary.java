@@ -1,4 +1,5 @@
 import ij.IJ;
+import ij.ImageListener;
 import ij.ImagePlus;
 import ij.Prefs;
 import ij.WindowManager;
@@ -12,8 +13,17 @@ import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import java.awt.Frame;
 import java.awt.Rectangle;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfKeyPoint;
 import org.opencv.core.Point;
@@ -49,8 +59,29 @@ public class OCV__LoadLibrary implements ExtendedPlugInFilter {
     public static final String VERSION = "0.9.45.0";
     public static final String URL_HELP = "https://github.com/WAKU-TAKE-A/IJToolsUsingOpenCV";
 
-    private static boolean disposed = true;
+    private static final int PARALLEL_MIN_PIXELS = 256 * 256;
+    private static final String PREFS_NUMTHREADS = "IJToolsUsingOpenCV.numThreads";
+    private static final int MATPOOL_MAX_PER_KEY = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static volatile boolean disposed = true;
     private static Mat dummy = null;
+    private static double timeLoadLibrary = Double.NaN;
+    private static double timeFirstMat = Double.NaN;
+    private static int appliedNumThreads = Integer.MIN_VALUE;
+
+    // Mat pool
+    private static final HashMap<String, ArrayDeque<Mat>> matPool = new HashMap<>();
+    private static long matPoolBytes = 0;
+    private static long matPoolMaxBytes = 512L * 1024 * 1024;
+
+    // Mat cache
+    private static final long MATCACHE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final LinkedHashMap<String, CachedMat> matCache = new LinkedHashMap<>(16, 0.75f, true);
+    private static boolean enMatCache = false;
+    private static boolean imageListenerAdded = false;
+    private static long matCacheBytes = 0;
+    private static long matCacheHits = 0;
+    private static long matCacheMisses = 0;
 
     public static Mat QueryMat = null;
     public static MatOfKeyPoint QueryKeys = null;
@@ -75,14 +106,8 @@ public class OCV__LoadLibrary implements ExtendedPlugInFilter {
 
     @Override
     public void run(ImageProcessor arg0) {
-        try {           
-            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-            IJ.showStatus("Loading succeeded.(" + VERSION + ")");
-            disposed = false;
-        }
-        catch(Throwable ex) {
-            IJ.log("ERR : " + ex.toString());
-            disposed = true;
+        if(LoadLibrary()) {
+            IJ.showStatus("Loading succeeded.(" + VERSION + ", loadLibrary " + getLoadLibraryTime() + " ms, first Mat " + getFirstMatTime() + " ms)");
         }
     }
 
@@ -107,10 +132,144 @@ public class OCV__LoadLibrary implements ExtendedPlugInFilter {
         }
     }
 
+    /**
+     * whether the OpenCV library is loaded or not.
+     * If it is not loaded yet, it is loaded by LoadLibrary().
+     * @return loaded or not
+     */
     public static boolean isLoad() {
+        return LoadLibrary();
+    }
+
+    /**
+     * whether the OpenCV library is loaded or not, and apply the number of threads for the plugin.
+     * @param plugin plugin which uses OpenCV
+     * @return loaded or not
+     */
+    public static boolean isLoad(Object plugin) {
+        if(!LoadLibrary()) {
+            return false;
+        }
+
+        ApplyNumThreads(plugin.getClass().getSimpleName());
+        return true;
+    }
+
+    /**
+     * load the OpenCV library if it is not loaded yet (thread-safe).
+     * The time of System.loadLibrary() and the first Mat allocation are recorded.
+     * @return loaded or not
+     */
+    public static boolean LoadLibrary() {
+        if(!disposed) {
+            return true;
+        }
+
+        synchronized(OCV__LoadLibrary.class) {
+            if(!disposed) {
+                return true;
+            }
+
+            try {
+                long t0 = System.nanoTime();
+                System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+                long t1 = System.nanoTime();
+                new Mat(1, 1, CvType.CV_8UC1).release();
+                long t2 = System.nanoTime();
+
+                timeLoadLibrary = (t1 - t0) / 1000000.0;
+                timeFirstMat = (t2 - t1) / 1000000.0;
+                disposed = false;
+
+                ApplyNumThreads(null);
+            }
+            catch(Throwable ex) {
+                IJ.log("ERR : " + ex.toString());
+                disposed = true;
+            }
+        }
+
         return !disposed;
     }
 
+    /**
+     * get the time of System.loadLibrary().
+     * @return time (ms). NaN if the library is not loaded by LoadLibrary().
+     */
+    public static double getLoadLibraryTime() {
+        return timeLoadLibrary;
+    }
+
+    /**
+     * get the time of the first Mat allocation.
+     * @return time (ms). NaN if the library is not loaded by LoadLibrary().
+     */
+    public static double getFirstMatTime() {
+        return timeFirstMat;
+    }
+
+    /**
+     * set the number of threads of OpenCV (saved in Prefs).
+     * @param num_threads number of threads. 0 means the default of OpenCV.
+     */
+    public static void SetNumThreads(int num_threads) {
+        Prefs.set(PREFS_NUMTHREADS, Math.max(0, num_threads));
+        ApplyNumThreads(null);
+    }
+
+    /**
+     * set the number of threads of OpenCV for the plugin (saved in Prefs).
+     * @param plugin class name of the plugin
+     * @param num_threads number of threads. 0 means the global setting.
+     */
+    public static void SetNumThreads(String plugin, int num_threads) {
+        Prefs.set(PREFS_NUMTHREADS + "." + plugin, Math.max(0, num_threads));
+    }
+
+    /**
+     * get the number of threads of OpenCV (saved in Prefs).
+     * @return number of threads. 0 means the default of OpenCV.
+     */
+    public static int getNumThreads() {
+        return (int)Prefs.get(PREFS_NUMTHREADS, 0);
+    }
+
+    /**
+     * get the number of threads of OpenCV for the plugin (saved in Prefs).
+     * @param plugin class name of the plugin
+     * @return number of threads. 0 means the global setting.
+     */
+    public static int getNumThreads(String plugin) {
+        return (int)Prefs.get(PREFS_NUMTHREADS + "." + plugin, 0);
+    }
+
+    /**
+     * apply the number of threads to OpenCV.
+     * Core.setNumThreads() is process-wide, so the setting of the plugin started last is effective.
+     * @param plugin class name of the plugin (null for the global setting)
+     */
+    public static void ApplyNumThreads(String plugin) {
+        if(disposed) {
+            return;
+        }
+
+        int num_threads = plugin == null ? 0 : getNumThreads(plugin);
+
+        if(num_threads == 0) {
+            num_threads = getNumThreads();
+        }
+
+        // a negative value resets the number of threads to the default of OpenCV
+        int cur_threads = num_threads == 0 ? -1 : num_threads;
+
+        synchronized(OCV__LoadLibrary.class) {
+            if(appliedNumThreads != cur_threads) {
+                Core.setNumThreads(cur_threads);
+                appliedNumThreads = cur_threads;
+            }
+        }
+    }
+
     // static method
     /**
      * a CV_8UC3 data of OpenCV -> a color data of ImageJ.
@@ -120,21 +279,42 @@ public class OCV__LoadLibrary implements ExtendedPlugInFilter {
      * @param imh height of image
      */
     public static void mat2intarray(Mat src_cv_8uc3, int[] dst_ar, int imw, int imh) {
+        mat2intarray(src_cv_8uc3, dst_ar, imw, imh, null);
+    }
+
+    /**
+     * a CV_8UC3 data of OpenCV -> a color data of ImageJ.
+     * The whole frame is transferred by one native call and packed in parallel.
+     * @param src_cv_8uc3 a CV_8UC3 data of OpenCV
+     * @param dst_ar a color data of ImageJ (int[])
+     * @param imw width of image
+     * @param imh height of image
+     * @param buf work buffer (imw * imh * 3 bytes). If it is null or the size differs, a new buffer is allocated.
+     * @return the work buffer used
+     */
+    public static byte[] mat2intarray(Mat src_cv_8uc3, int[] dst_ar, int imw, int imh, byte[] buf) {
         if((src_cv_8uc3.width() != imw) || (src_cv_8uc3.height() != imh) || dst_ar.length != imw * imh) {
             IJ.error("Wrong image size");
+            return buf;
         }
 
-        for(int y = 0; y < imh; y++) {
-            for(int x = 0; x < imw; x++) {
-                byte[] dst_cv_8uc3_ele = new byte[3];
-                src_cv_8uc3.get(y, x, dst_cv_8uc3_ele);
-                int b = dst_cv_8uc3_ele[0] & 0x000000ff;
-                int g = (dst_cv_8uc3_ele[1] << 8) & 0x0000ff00;
-                int r = (dst_cv_8uc3_ele[2] << 16) & 0x00ff0000;
-                int a = 0xff000000;
-                dst_ar[x + imw * y] = b + g + r + a;
+        final byte[] bgr = (buf == null || buf.length != imw * imh * 3) ? new byte[imw * imh * 3] : buf;
+
+        src_cv_8uc3.get(0, 0, bgr);
+
+        rowsInParallel(imh, imw, (y) -> {
+            int ind = imw * y;
+            int end = ind + imw;
+
+            for(int i = ind * 3; ind < end; ind++, i += 3) {
+                int b = bgr[i] & 0xff;
+                int g = bgr[i + 1] & 0xff;
+                int r = bgr[i + 2] & 0xff;
+                dst_ar[ind] = 0xff000000 | (r << 16) | (g << 8) | b;
             }
-        }
+        });
+
+        return bgr;
     }
 
     /**
@@ -145,18 +325,492 @@ public class OCV__LoadLibrary implements ExtendedPlugInFilter {
      * @param imh height of image
      */
     public static void intarray2mat(int[] src_ar, Mat dst_cv_8uc3, int imw, int imh) {
+        intarray2mat(src_ar, dst_cv_8uc3, imw, imh, null);
+    }
+
+    /**
+     * a color data of ImageJ -> a CV_8UC3 data of OpenCV
+     * The whole frame is unpacked in parallel and transferred by one native call.
+     * @param src_ar a color data of ImageJ (int[])
+     * @param dst_cv_8uc3 CV_8UC3 data of OpenCV
+     * @param imw width of image
+     * @param imh height of image
+     * @param buf work buffer (imw * imh * 3 bytes). If it is null or the size differs, a new buffer is allocated.
+     * @return the work buffer used
+     */
+    public static byte[] intarray2mat(int[] src_ar, Mat dst_cv_8uc3, int imw, int imh, byte[] buf) {
         if((dst_cv_8uc3.width() != imw) || (dst_cv_8uc3.height() != imh) || src_ar.length != imw * imh) {
             IJ.error("Wrong image size");
+            return buf;
+        }
+
+        final byte[] bgr = (buf == null || buf.length != imw * imh * 3) ? new byte[imw * imh * 3] : buf;
+
+        rowsInParallel(imh, imw, (y) -> {
+            int ind = imw * y;
+            int end = ind + imw;
+
+            for(int i = ind * 3; ind < end; ind++, i += 3) {
+                int c = src_ar[ind];
+                bgr[i] = (byte)c;
+                bgr[i + 1] = (byte)(c >> 8);
+                bgr[i + 2] = (byte)(c >> 16);
+            }
+        });
+
+        dst_cv_8uc3.put(0, 0, bgr);
+
+        return bgr;
+    }
+
+    // run the row task, in parallel if the image is large enough
+    private static void rowsInParallel(int imh, int imw, IntConsumer task) {
+        if((long)imw * imh < PARALLEL_MIN_PIXELS) {
+            for(int y = 0; y < imh; y++) {
+                task.accept(y);
+            }
+        }
+        else {
+            IntStream.range(0, imh).parallel().forEach(task);
+        }
+    }
+
+    /**
+     * get a Mat from the pool (or allocate a new Mat).
+     * The content of the returned Mat is undefined.
+     * @param rows rows
+     * @param cols cols
+     * @param type type of CvType
+     * @return Mat
+     */
+    public static Mat GetMat(int rows, int cols, int type) {
+        String key = matPoolKey(rows, cols, type);
+
+        synchronized(matPool) {
+            ArrayDeque<Mat> que = matPool.get(key);
+
+            if(que != null && !que.isEmpty()) {
+                Mat mat = que.pop();
+                matPoolBytes -= matBytes(mat);
+                return mat;
+            }
+        }
+
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * return Mats to the pool.
+     * Mats exceeding the pool limits are released immediately.
+     * @param mats Mats got by GetMat()
+     */
+    public static void ReturnMat(Mat... mats) {
+        for(Mat mat : mats) {
+            if(mat == null || mat.empty()) {
+                continue;
+            }
+
+            long bytes = matBytes(mat);
+            boolean pooled = false;
+
+            synchronized(matPool) {
+                String key = matPoolKey(mat.rows(), mat.cols(), mat.type());
+                ArrayDeque<Mat> que = matPool.computeIfAbsent(key, k -> new ArrayDeque<>());
+
+                if(que.size() < MATPOOL_MAX_PER_KEY && matPoolBytes + bytes <= matPoolMaxBytes) {
+                    que.push(mat);
+                    matPoolBytes += bytes;
+                    pooled = true;
+                }
+            }
+
+            if(!pooled) {
+                mat.release();
+            }
+        }
+    }
+
+    /**
+     * release all Mats in the pool.
+     */
+    public static void ClearMatPool() {
+        synchronized(matPool) {
+            for(ArrayDeque<Mat> que : matPool.values()) {
+                for(Mat mat : que) {
+                    mat.release();
+                }
+            }
+
+            matPool.clear();
+            matPoolBytes = 0;
+        }
+    }
+
+    /**
+     * set the maximum bytes kept in the pool.
+     * @param max_bytes maximum bytes (0 disables pooling)
+     */
+    public static void SetMatPoolMaxBytes(long max_bytes) {
+        synchronized(matPool) {
+            matPoolMaxBytes = Math.max(0, max_bytes);
+        }
+
+        if(getMatPoolBytes() > matPoolMaxBytes) {
+            ClearMatPool();
+        }
+    }
+
+    /**
+     * get the bytes kept in the pool.
+     * @return bytes
+     */
+    public static long getMatPoolBytes() {
+        synchronized(matPool) {
+            return matPoolBytes;
+        }
+    }
+
+    private static String matPoolKey(int rows, int cols, int type) {
+        return rows + "x" + cols + "_" + type;
+    }
+
+    private static long matBytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    /**
+     * Mats whose lifetime is one scope.
+     * Mats got by get() are returned to the pool and Mats added by add() are released, when the scope is closed.
+     * The bytes of the Mats got by get() are reserved in MyNativeMemory under the name of the plugin.
+     */
+    public static class MatScope implements AutoCloseable {
+        private final ArrayList<Mat> pooled = new ArrayList<>();
+        private final ArrayList<Mat> owned = new ArrayList<>();
+        private final ArrayList<MyNativeMemory.Reservation> reservations = new ArrayList<>();
+        private final IdentityHashMap<Mat, Long> crcs = new IdentityHashMap<>();
+        private final String plugin;
+        private final long t0;
+
+        /**
+         * @param plugin name under which the bytes are reserved and the time is recorded (MyPhaseTimer.TOTAL)
+         */
+        public MatScope(String plugin) {
+            this.plugin = plugin;
+            this.t0 = MyPhaseTimer.start();
+        }
+
+        /**
+         * get a Mat from the pool.
+         * @param rows rows
+         * @param cols cols
+         * @param type type of CvType
+         * @return Mat
+         */
+        public Mat get(int rows, int cols, int type) {
+            reservations.add(MyNativeMemory.reserve(plugin, (long)rows * cols * CvType.ELEM_SIZE(type)));
+            Mat mat = GetMat(rows, cols, type);
+            pooled.add(mat);
+            return mat;
+        }
+
+        /**
+         * detach a Mat from the scope. The caller takes over the Mat.
+         * @param mat Mat
+         */
+        public void detach(Mat mat) {
+            pooled.remove(mat);
+            owned.remove(mat);
+            crcs.remove(mat);
+        }
+
+        /**
+         * add a Mat released at the end of the scope.
+         * @param <T> Mat or MatOf...
+         * @param mat Mat
+         * @return mat
+         */
+        public <T extends Mat> T add(T mat) {
+            owned.add(mat);
+            return mat;
         }
 
-        for(int y = 0; y < imh; y++) {
-            for(int x = 0; x < imw; x++) {
-                int ind = x + imw * y;
-                byte b = (byte)(src_ar[ind] & 0xff);
-                byte g = (byte)((src_ar[ind] >> 8) & 0xff);
-                byte r = (byte)((src_ar[ind] >> 16) & 0xff);
-                dst_cv_8uc3.put(y, x, new byte[] { b, g, r });
+        @Override
+        public void close() {
+            for(Mat mat : pooled) {
+                ReturnMat(mat);
             }
+
+            for(Mat mat : owned) {
+                mat.release();
+            }
+
+            for(MyNativeMemory.Reservation res : reservations) {
+                res.close();
+            }
+
+            pooled.clear();
+            owned.clear();
+            reservations.clear();
+            crcs.clear();
+            MyPhaseTimer.lap(plugin, MyPhaseTimer.TOTAL, t0);
+        }
+    }
+
+    /**
+     * enable or disable the Mat cache.
+     * The Mat cache keeps a native mirror of 8-bit images so that the next OCV plugin can skip Mat.put().
+     * @param en enable or not
+     */
+    public static void SetMatCacheEnabled(boolean en) {
+        synchronized(matCache) {
+            enMatCache = en;
+
+            if(!en) {
+                clearMatCacheInternal();
+            }
+        }
+    }
+
+    /**
+     * whether the Mat cache is enabled or not.
+     * @return enabled or not
+     */
+    public static boolean isMatCacheEnabled() {
+        synchronized(matCache) {
+            return enMatCache;
+        }
+    }
+
+    /**
+     * release all Mats in the Mat cache and reset the counters.
+     */
+    public static void ClearMatCache() {
+        synchronized(matCache) {
+            clearMatCacheInternal();
+            matCacheHits = 0;
+            matCacheMisses = 0;
+        }
+    }
+
+    /**
+     * release all Mats in the Mat cache (the counters are kept).
+     */
+    public static void EvictMatCache() {
+        synchronized(matCache) {
+            clearMatCacheInternal();
+        }
+    }
+
+    /**
+     * get the bytes of the Mats in the Mat cache.
+     * @return bytes
+     */
+    public static long getMatCacheBytes() {
+        synchronized(matCache) {
+            return matCacheBytes;
+        }
+    }
+
+    /**
+     * get the number of cache hits.
+     * @return hits
+     */
+    public static long getMatCacheHits() {
+        synchronized(matCache) {
+            return matCacheHits;
+        }
+    }
+
+    /**
+     * get the number of cache misses.
+     * @return misses
+     */
+    public static long getMatCacheMisses() {
+        synchronized(matCache) {
+            return matCacheMisses;
+        }
+    }
+
+    /**
+     * get a CV_8UC1 Mat with the same content as the pixels of ip.
+     * When the Mat cache has a valid mirror of the pixels, it is returned without Mat.put().
+     * The mirror is validated by the pixel array, the size and a CRC32C of all the pixels, so any edit out of the OCV plugins is detected.
+     * A hit costs one read-only pass over the pixels instead of a copy into native memory.
+     * The returned Mat belongs to scope. Store it again by StoreCachedMat() to keep the mirror.
+     * @param imp ImagePlus which ip belongs to
+     * @param ip 8-bit ImageProcessor
+     * @param scope scope which the returned Mat belongs to
+     * @return Mat (CV_8UC1)
+     */
+    public static Mat GetCachedMat(ImagePlus imp, ImageProcessor ip, MatScope scope) {
+        long t = MyPhaseTimer.start();
+        byte[] pixels = (byte[])ip.getPixels();
+        int imw = ip.getWidth();
+        int imh = ip.getHeight();
+
+        String key = null;
+        CachedMat cm = null;
+
+        synchronized(matCache) {
+            if(enMatCache && imp != null) {
+                key = matCacheKey(imp, pixels);
+                cm = matCache.get(key);
+
+                if(cm == null || cm.pixels != pixels || cm.mat.cols() != imw || cm.mat.rows() != imh) {
+                    cm = null;
+                    matCacheMisses++;
+                }
+            }
+        }
+
+        if(cm != null) {
+            // hash out of the lock, then take the mirror if nobody replaced it meanwhile
+            long crc = crc32c(pixels);
+
+            synchronized(matCache) {
+                if(cm.crc == crc && matCache.remove(key, cm)) {
+                    // the scope owns the mirror while it is used
+                    matCacheBytes -= matBytes(cm.mat);
+                    scope.pooled.add(cm.mat);
+                    scope.crcs.put(cm.mat, crc);
+                    matCacheHits++;
+                    MyPhaseTimer.lap(scope.plugin, MyPhaseTimer.TO_MAT, t);
+                    return cm.mat;
+                }
+
+                matCacheMisses++;
+            }
+        }
+
+        Mat mat = scope.get(imh, imw, CvType.CV_8UC1);
+        mat.put(0, 0, pixels);
+        MyPhaseTimer.lap(scope.plugin, MyPhaseTimer.TO_MAT, t);
+        return mat;
+    }
+
+    /**
+     * store a CV_8UC1 Mat as the mirror of the pixels of ip.
+     * The content of mat must be the same as the pixels of ip.
+     * A Mat got by GetCachedMat() and stored without any change is not hashed again.
+     * If the Mat cache is enabled, mat is detached from scope and owned by the cache.
+     * @param imp ImagePlus which ip belongs to
+     * @param ip 8-bit ImageProcessor
+     * @param mat Mat (CV_8UC1)
+     * @param scope scope which mat belongs to
+     */
+    public static void StoreCachedMat(ImagePlus imp, ImageProcessor ip, Mat mat, MatScope scope) {
+        byte[] pixels = (byte[])ip.getPixels();
+        CachedMat old;
+
+        synchronized(matCache) {
+            if(!enMatCache || imp == null) {
+                return;
+            }
+        }
+
+        Long known = scope.crcs.remove(mat);
+        long crc = known != null ? known : crc32c(pixels);
+
+        synchronized(matCache) {
+            if(!enMatCache) {
+                return;
+            }
+
+            if(!imageListenerAdded) {
+                ImagePlus.addImageListener(new MatCacheListener());
+                imageListenerAdded = true;
+            }
+
+            scope.detach(mat);
+            old = matCache.put(matCacheKey(imp, pixels), new CachedMat(imp.getID(), pixels, mat, crc));
+            matCacheBytes += matBytes(mat);
+
+            if(old != null) {
+                matCacheBytes -= matBytes(old.mat);
+            }
+
+            Iterator<CachedMat> it = matCache.values().iterator();
+
+            while(matCacheBytes > MATCACHE_MAX_BYTES && it.hasNext()) {
+                CachedMat cm = it.next();
+
+                if(cm.mat != mat) {
+                    it.remove();
+                    matCacheBytes -= matBytes(cm.mat);
+                    cm.mat.release();
+                }
+            }
+        }
+
+        if(old != null && old.mat != mat) {
+            ReturnMat(old.mat);
+        }
+    }
+
+    private static void clearMatCacheInternal() {
+        for(CachedMat cm : matCache.values()) {
+            cm.mat.release();
+        }
+
+        matCache.clear();
+        matCacheBytes = 0;
+    }
+
+    private static String matCacheKey(ImagePlus imp, Object pixels) {
+        return imp.getID() + "_" + System.identityHashCode(pixels);
+    }
+
+    // hash of all the pixels
+    private static long crc32c(byte[] pixels) {
+        CRC32C crc = new CRC32C();
+        crc.update(pixels, 0, pixels.length);
+        return crc.getValue();
+    }
+
+    // a native mirror of the pixels
+    private static class CachedMat {
+        final int id;
+        final Object pixels;
+        final Mat mat;
+        final long crc;
+
+        CachedMat(int id, Object pixels, Mat mat, long crc) {
+            this.id = id;
+            this.pixels = pixels;
+            this.mat = mat;
+            this.crc = crc;
+        }
+    }
+
+    // release mirrors of closed images
+    private static class MatCacheListener implements ImageListener {
+        @Override
+        public void imageOpened(ImagePlus imp) {
+            // do nothing
+        }
+
+        @Override
+        public void imageClosed(ImagePlus imp) {
+            int id = imp.getID();
+
+            synchronized(matCache) {
+                Iterator<CachedMat> it = matCache.values().iterator();
+
+                while(it.hasNext()) {
+                    CachedMat cm = it.next();
+
+                    if(cm.id == id) {
+                        it.remove();
+                        matCacheBytes -= matBytes(cm.mat);
+                        cm.mat.release();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void imageUpdated(ImagePlus imp) {
+            // do nothing (the pixels are verified by the CRC32C on every hit)
         }
     }
 
@@ -0,0 +1,121 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ImageProcessor;
+import org.opencv.core.Core;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Takehito Nishida.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Settings of OpenCV (number of threads) and the preview.
+ */
+public class OCV__Settings implements ExtendedPlugInFilter {
+    // constant var.
+    private static final int FLAGS = NO_IMAGE_REQUIRED;
+
+    // var.
+    private int numThreads = 0;
+    private String plugin = "";
+    private int pluginThreads = 0;
+    private boolean previewVisibleOnly = true;
+    private double previewScale = 1.0;
+    private long nativeLimitMB = 0;
+
+    @Override
+    public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+        GenericDialog gd = new GenericDialog(command.trim() + "...");
+        gd.addNumericField("num_threads", OCV__LoadLibrary.getNumThreads(), 0);
+        gd.addStringField("plugin", plugin, 24);
+        gd.addNumericField("plugin_threads", plugin.isEmpty() ? 0 : OCV__LoadLibrary.getNumThreads(plugin), 0);
+        gd.addMessage("num_threads = 0 : default of OpenCV.\nplugin_threads = 0 : same as num_threads.\nThe current number of threads is " + Core.getNumThreads() + ".");
+        gd.addCheckbox("preview_visible_region_only", MyPreview.isVisibleOnly());
+        gd.addNumericField("preview_scale", MyPreview.getScale(), 2);
+        gd.addNumericField("native_memory_limit_mb", MyNativeMemory.getLimitMB(), 0);
+        gd.addMessage("native_memory_limit_mb = 0 : unlimited.");
+        gd.showDialog();
+
+        if(gd.wasCanceled()) {
+            return DONE;
+        }
+        else {
+            numThreads = (int)gd.getNextNumber();
+            plugin = gd.getNextString().trim();
+            pluginThreads = (int)gd.getNextNumber();
+            previewVisibleOnly = gd.getNextBoolean();
+            previewScale = gd.getNextNumber();
+            nativeLimitMB = (long)gd.getNextNumber();
+
+            if(numThreads < 0 || pluginThreads < 0) {
+                IJ.error("'0 <= num_threads' and '0 <= plugin_threads' are necessary.");
+                return DONE;
+            }
+
+            if(Double.isNaN(previewScale) || previewScale <= 0 || 1 < previewScale) {
+                IJ.error("'0 < preview_scale <= 1' is necessary.");
+                return DONE;
+            }
+
+            if(nativeLimitMB < 0) {
+                IJ.error("'0 <= native_memory_limit_mb' is necessary.");
+                return DONE;
+            }
+
+            return FLAGS;
+        }
+    }
+
+    @Override
+    public void setNPasses(int nPasses) {
+        // do nothing
+    }
+
+    @Override
+    public int setup(String arg, ImagePlus imp) {
+        if(!OCV__LoadLibrary.isLoad(this)) {
+            IJ.error("Library is not loaded.");
+            return DONE;
+        }
+
+        return FLAGS;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        OCV__LoadLibrary.SetNumThreads(numThreads);
+
+        if(!plugin.isEmpty()) {
+            OCV__LoadLibrary.SetNumThreads(plugin, pluginThreads);
+        }
+
+        MyPreview.setVisibleOnly(previewVisibleOnly);
+        MyPreview.setScale(previewScale);
+        MyNativeMemory.setLimitMB(nativeLimitMB);
+        Prefs.savePreferences();
+        IJ.showStatus("num_threads=" + Core.getNumThreads());
+    }
+}
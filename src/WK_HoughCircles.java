@@ -11,6 +11,9 @@ import java.awt.AWTEvent;
 import java.awt.Frame;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
 
 /*
  * The MIT License
@@ -56,14 +59,20 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
     private static final int IXSUM = 6;
     private static final int IYSUM = 7;
     private static final int IN = 8;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int PYRAMID_MIN_RADIUS = 4; // min of rmax on the coarsest level
 
     // static var.
     private static Rectangle rect = null;
     private static int rmin = 0;
     private static int rmax = 0;
     private static int indMode = 4;
+    private static boolean enGradient = false;
+    private static double gradThr = 100;
+    private static int pyrLevels = 0;
     private static int minVotes = 1;
     private static double rngSame = 1;
+    private static boolean enNms = false;
     private static boolean enAddRoi = true;
     private static boolean enOutputImg = true;
 
@@ -78,8 +87,12 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
         gd.addNumericField("min_radius", rmin, 0);
         gd.addNumericField("max_radius", rmax, 0);
         gd.addChoice("mode", STR_MODE, STR_MODE[indMode]);
+        gd.addCheckbox("gradient_direction", enGradient);
+        gd.addNumericField("gradient_threshold", gradThr, 4);
+        gd.addNumericField("pyramid_levels", pyrLevels, 0);
         gd.addNumericField("min_votes", minVotes, 0);
         gd.addNumericField("range_to_judge_same", rngSame, 4);
+        gd.addCheckbox("nms_across_radii", enNms);
         gd.addCheckbox("enable_add_roi", enAddRoi);
         gd.addCheckbox("enable_output_hough_image", enOutputImg);
         gd.addDialogListener(this);
@@ -99,8 +112,12 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
         rmin = (int)gd.getNextNumber();
         rmax = (int)gd.getNextNumber();
         indMode = gd.getNextChoiceIndex();
+        enGradient = gd.getNextBoolean();
+        gradThr = (double)gd.getNextNumber();
+        pyrLevels = (int)gd.getNextNumber();
         minVotes = (int)gd.getNextNumber();
         rngSame = (double)gd.getNextNumber();
+        enNms = gd.getNextBoolean();
         enAddRoi = gd.getNextBoolean();
         enOutputImg = gd.getNextBoolean();
 
@@ -119,6 +136,21 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
             return false;
         }
 
+        if(gradThr < 0) {
+            IJ.showStatus("'0 <= gradThr' is necessary.");
+            return false;
+        }
+
+        if(pyrLevels < 0 || 4 < pyrLevels) {
+            IJ.showStatus("'0 <= pyrLevels <= 4' is necessary.");
+            return false;
+        }
+
+        if(enGradient && 0 < pyrLevels) {
+            IJ.showStatus("'pyrLevels = 0' is necessary with gradient_direction.");
+            return false;
+        }
+
         if(minVotes < 0) {
             IJ.showStatus("'0 <= minVotes' is necessary.");
             return false;
@@ -166,22 +198,27 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
         byte[] src = (byte[]) ip.getPixels();
         int imw = ip.getWidth();
 
-        // dst
-        ImagePlus impDst = new ImagePlus("tmp", new ShortProcessor(rect.width, rect.height * (rmax - rmin + 1)));
-        short[] dst = (short[]) impDst.getChannelProcessor().getPixels();
+        // run (the accumulator is selected by the expected votes)
+        MyHoughAccumulator dst;
 
-        // run
-        int mode = indMode == (STR_MODE.length - 1) ? rmax * 8 : INT_MODE[indMode];
-        int err = houghCircles(src, dst, imw, rect.x, rect.y, rect.width, rect.height, rmin, rmax, mode);
+        if(enGradient) {
+            dst = accumulateGradient(src, imw, ip.getHeight(), rect.x, rect.y, rect.width, rect.height, rmin, rmax, gradThr, null);
+        }
+        else if(0 < pyrLevels) {
+            dst = accumulatePyramid(src, imw, rect.x, rect.y, rect.width, rect.height, rmin, rmax, pyrLevels);
+        }
+        else {
+            dst = accumulate(src, imw, rect.x, rect.y, rect.width, rect.height, rmin, rmax, getMode(rmax), null);
+        }
 
         // fin
-        if(err != ERR_OK) {
-            IJ.error("Err code of HoughCircle() is " + String.valueOf(err));
+        if(dst == null) {
+            IJ.error("Err code of HoughCircle() is " + String.valueOf(ERR_ARG));
             return;
         }
 
         if(enOutputImg) {
-            showHoughImg(impDst, rect, rmin, rmax, impSrc.getShortTitle() + "_HoughImage");
+            showHoughImg(dst, rmin, impSrc.getShortTitle() + "_HoughImage");
         }
 
         showData(dst);
@@ -189,6 +226,12 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
 
     // private
     private int houghCircles(byte[] pSrc, short[] pHoughValues, int imw, int roix, int roiy, int roiw, int roih, int rmin, int rmax, int mode) {
+        MyHoughAccumulator acc = MyHoughAccumulator.wrap(pHoughValues, roiw, roih, (rmax - rmin) + 1);
+        return accumulate(pSrc, imw, roix, roiy, roiw, roih, rmin, rmax, mode, acc) == null ? ERR_ARG : ERR_OK;
+    }
+
+    // Hough transform. returns acc (created if null), or null if the arguments are wrong
+    private MyHoughAccumulator accumulate(byte[] pSrc, int imw, int roix, int roiy, int roiw, int roih, int rmin, int rmax, int mode, MyHoughAccumulator acc) {
         int err = ERR_OK;
         int incDen = 0;
         int depthR = (rmax - rmin) + 1;
@@ -212,68 +255,496 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
             }
         }
 
-        int i = 0;
+        if(err == ERR_OK) {
+            lutSize = buildLut(rmin, depthR, incDen, cosLut, sinLut);
+        }
 
+        // Hough transform
         if(err == ERR_OK) {
-            for(int indR = 0; indR < depthR ; indR++) {
-                i = 0;
-
-                for(int incNun = 0; incNun < incDen / 4; incNun++) {
-                    double angle =  2 * Math.PI  / (double)incDen * (double)incNun;
-                    int tmp = (int)((rmin + indR) * Math.cos(angle));
-                    int rcos = (int)(tmp + 0.5 - (tmp < 0 ? 1 : 0));
-                    tmp = (int)((rmin + indR) * Math.sin(angle));
-                    int rsin = (int)(tmp + 0.5 - (tmp < 0 ? 1 : 0));
-
-                    if((i == 0) | (rcos != cosLut[i * depthR + indR]) & (rsin != sinLut[i * depthR + indR])) {
-                        cosLut[i * depthR + indR] = rcos;
-                        sinLut[i * depthR + indR] = rsin;
-                        i++;
+            int[] edges = extractEdges(pSrc, imw, roix, roiy, roiw, roih);
+            int lutNum = lutSize;
+
+            if(acc == null) {
+                // a cell gets at most 4 votes from each edge pixel on its circle
+                acc = MyHoughAccumulator.create(roiw, roih, depthR, (long)edges.length * depthR * lutSize * 4, 4 * Math.min(edges.length, perimeter(rmax)));
+            }
+
+            voteInParallel(edges, roiw, roih, rmin, rmax, lutNum * 4, acc, (from, to, indR, band) -> vote(edges, from, to, roiw, cosLut, sinLut, lutNum, depthR, indR, band));
+        }
+
+        return err == ERR_OK ? acc : null;
+    }
+
+    // coarse-to-fine Hough transform. returns a sparse accumulator, or null if the arguments are wrong
+    // The candidates are the local maxima on the edge image reduced by 2^levels (max pooling).
+    // Each candidate is refined in a window of +-1 coarse pixel (centers and radius) at full resolution.
+    // The votes in the windows are the same as the exhaustive transform, and the other cells are empty.
+    // If the refinement of the candidates would cost more than the exhaustive transform (e.g. a low min_votes), the exhaustive transform is used.
+    private MyHoughAccumulator accumulatePyramid(byte[] pSrc, int imw, int roix, int roiy, int roiw, int roih, int rmin, int rmax, int levels) {
+        int scale = 1 << levels;
+
+        while(1 < scale && rmax / scale < PYRAMID_MIN_RADIUS) {
+            scale >>= 1;
+        }
+
+        if(scale == 1 || rmin < 0 || rmax < rmin) {
+            return accumulate(pSrc, imw, roix, roiy, roiw, roih, rmin, rmax, getMode(rmax), null);
+        }
+
+        // reduced edge image
+        int cw = (roiw + scale - 1) / scale;
+        int ch = (roih + scale - 1) / scale;
+        byte[] coarse = new byte[cw * ch];
+        long numEdges = 0;
+
+        for(int y = 0; y < roih; y++) {
+            for(int x = 0; x < roiw; x++) {
+                if(pSrc[(y + roiy) * imw + (x + roix)] != 0) {
+                    coarse[(y / scale) * cw + (x / scale)] = 1;
+                    numEdges++;
+                }
+            }
+        }
+
+        // lookup tables
+        int depthR = (rmax - rmin) + 1;
+        int mode = getMode(rmax);
+        int[] cosLut = new int[mode * depthR];
+        int[] sinLut = new int[mode * depthR];
+        int lutSize = buildLut(rmin, depthR, mode, cosLut, sinLut);
+        int crmin = rmin / scale;
+        int crmax = (rmax + scale - 1) / scale;
+        int cdepthR = (crmax - crmin) + 1;
+        int cmode = getMode(crmax);
+        int clutSize = buildLut(crmin, cdepthR, cmode, new int[cmode * cdepthR], new int[cmode * cdepthR]);
+
+        // candidates. A peak gets up to 4 votes from each entry of the lookup table, and the table of the reduced image is smaller
+        // (RMAX*8 shrinks it by the scale, and the others by the duplicated offsets of the small radii).
+        // So the threshold is scaled by the ratio of the sizes, and halved to keep the recall.
+        // A plateau of the same votes gives one candidate, the first one in the order of forEach().
+        MyHoughAccumulator cacc = accumulate(coarse, cw, 0, 0, cw, ch, crmin, crmax, cmode, null);
+
+        if(cacc == null) {
+            return null;
+        }
+
+        ArrayList<int[]> cands = new ArrayList<int[]>();
+        int cthr = (int)((long)minVotes * clutSize / (2L * Math.max(1, lutSize)));
+
+        cacc.forEach(cthr, (x, y, indR, vt) -> {
+            if(isLocalMax(cacc, x, y, indR, vt)) {
+                cands.add(new int[] { x, y, indR + crmin });
+            }
+        });
+
+        // a window costs (3 * scale)^2 * (2 * scale + 1) cells, and the exhaustive transform costs numEdges * depthR cells, for each entry of the table
+        long costWin = 9L * scale * scale * (2 * scale + 1);
+
+        if(numEdges * depthR < cands.size() * costWin) {
+            return accumulate(pSrc, imw, roix, roiy, roiw, roih, rmin, rmax, mode, null);
+        }
+
+        // refine at full resolution
+        byte[] edge = new byte[roiw * roih];
+        MyHoughAccumulator acc = MyHoughAccumulator.create(roiw, roih, depthR, 0, 0);
+        int sc = scale;
+
+        for(int y = 0; y < roih; y++) {
+            System.arraycopy(pSrc, (y + roiy) * imw + roix, edge, y * roiw, roiw);
+        }
+
+        // The votes of a cell are counted from the edge pixels on its circle, which is the same as voting from all edge pixels.
+        cands.parallelStream().forEach(cand -> {
+            int x0 = Math.max(0, (cand[0] - 1) * sc);
+            int x1 = Math.min(roiw, (cand[0] + 2) * sc);
+            int y0 = Math.max(0, (cand[1] - 1) * sc);
+            int y1 = Math.min(roih, (cand[1] + 2) * sc);
+            int r0 = Math.max(rmin, (cand[2] - 1) * sc);
+            int r1 = Math.min(rmax, (cand[2] + 1) * sc);
+
+            if(x1 <= x0 || y1 <= y0 || r1 < r0) {
+                return;
+            }
+
+            int ww = x1 - x0;
+            int wh = y1 - y0;
+            int[] win = new int[ww * wh * (r1 - r0 + 1)];
+
+            for(int r = r0; r <= r1; r++) {
+                int indR = r - rmin;
+
+                for(int y = y0; y < y1; y++) {
+                    for(int x = x0; x < x1; x++) {
+                        int vt = 0;
+
+                        for(int k = lutSize - 1; k >= 0; k--) {
+                            int c = cosLut[k * depthR + indR];
+                            int s = sinLut[k * depthR + indR];
+
+                            vt += isEdge(edge, roiw, roih, x - c, y - s) + isEdge(edge, roiw, roih, x - c, y + s) + isEdge(edge, roiw, roih, x + c, y - s) + isEdge(edge, roiw, roih, x + c, y + s);
+                        }
+
+                        win[((r - r0) * wh + (y - y0)) * ww + (x - x0)] = vt;
                     }
                 }
             }
 
-            lutSize = i;
+            // the windows may overlap, and the cells already stored have the same votes
+            synchronized(acc) {
+                for(int j = 0; j < win.length; j++) {
+                    int wr = j / (ww * wh);
+                    int wy = j / ww % wh;
+                    int wx = j % ww;
+
+                    if(win[j] != 0 && acc.get(r0 - rmin + wr, y0 + wy, x0 + wx) == 0) {
+                        acc.add(r0 - rmin + wr, y0 + wy, x0 + wx, win[j]);
+                    }
+                }
+            }
+        });
+
+        return acc;
+    }
+
+    // whether the cell is more than the preceding and not less than the following of the 26 neighbours
+    private static boolean isLocalMax(MyHoughAccumulator acc, int x, int y, int indR, int vt) {
+        for(int dr = -1; dr <= 1; dr++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                for(int dx = -1; dx <= 1; dx++) {
+                    int nr = indR + dr;
+                    int ny = y + dy;
+                    int nx = x + dx;
+
+                    if(0 <= nr && nr < acc.getDepth() && 0 <= ny && ny < acc.getHeight() && 0 <= nx && nx < acc.getWidth()) {
+                        int nv = acc.get(nr, ny, nx);
+                        boolean preceding = dr < 0 || (dr == 0 && (dy < 0 || (dy == 0 && dx < 0)));
+
+                        if(vt < nv || (preceding && vt == nv)) {
+                            return false;
+                        }
+                    }
+                }
+            }
         }
 
-        // Hough transform
-        if(err == ERR_OK) {
-            for(int y = roih - 1; y >= 0; y--) {
-                for(int x = roiw - 1; x >= 0; x--) {
-                    for(int indR = depthR - 1; indR >= 0; indR--) {
-                        if(pSrc[(x + roix) + (y + roiy) * imw] != 0) {
-                            for(int k = lutSize - 1; k >= 0; k--) {
-                                int a1 = x + cosLut[k * depthR + indR];
-                                int b1 = y + sinLut[k * depthR + indR];
-
-                                if((b1 >= 0) && (b1 < roih) && (a1 >= 0) && (a1 < roiw)) {
-                                    int cond = indR * roih * roiw + b1 * roiw + a1;
-                                    pHoughValues[cond] += 1;
-                                }
-
-                                int a2 = x + cosLut[k * depthR + indR];
-                                int b2 = y - sinLut[k * depthR + indR];
-
-                                if((b2 >= 0) && (b2 < roih) && (a2 >= 0) && (a2 < roiw)) {
-                                    int cond = indR * roih * roiw + b2 * roiw + a2;
-                                    pHoughValues[cond] += 1;
-                                }
-
-                                int a3 = x - cosLut[k * depthR + indR];
-                                int b3 = y + sinLut[k * depthR + indR];
-
-                                if((b3 >= 0) && (b3 < roih) && (a3 >= 0) && (a3 < roiw)) {
-                                    int cond = indR * roih * roiw + b3 * roiw + a3;
-                                    pHoughValues[cond] += 1;
-                                }
-
-                                int a4 = x - cosLut[k * depthR + indR];
-                                int b4 = y - sinLut[k * depthR + indR];
-
-                                if((b4 >= 0) && (b4 < roih) && (a4 >= 0) && (a4 < roiw)) {
-                                    int cond = indR * roih * roiw + b4 * roiw + a4;
-                                    pHoughValues[cond] += 1;
-                                }
+        return true;
+    }
+
+    // number of the angles of the lookup table
+    private static int getMode(int rmax) {
+        return indMode == (STR_MODE.length - 1) ? rmax * 8 : INT_MODE[indMode];
+    }
+
+    // lookup table of the quarter circles (cosLut[k * depthR + indR], sinLut[k * depthR + indR]). returns the size
+    private static int buildLut(int rmin, int depthR, int incDen, int[] cosLut, int[] sinLut) {
+        int i = 0;
+
+        for(int indR = 0; indR < depthR ; indR++) {
+            i = 0;
+
+            for(int incNun = 0; incNun < incDen / 4; incNun++) {
+                double angle =  2 * Math.PI  / (double)incDen * (double)incNun;
+                int tmp = (int)((rmin + indR) * Math.cos(angle));
+                int rcos = (int)(tmp + 0.5 - (tmp < 0 ? 1 : 0));
+                tmp = (int)((rmin + indR) * Math.sin(angle));
+                int rsin = (int)(tmp + 0.5 - (tmp < 0 ? 1 : 0));
+
+                if((i == 0) | (rcos != cosLut[i * depthR + indR]) & (rsin != sinLut[i * depthR + indR])) {
+                    cosLut[i * depthR + indR] = rcos;
+                    sinLut[i * depthR + indR] = rsin;
+                    i++;
+                }
+            }
+        }
+
+        return i;
+    }
+
+    // Hough transform by the gradient direction. returns acc (created if null), or null if the arguments are wrong
+    private MyHoughAccumulator accumulateGradient(byte[] pSrc, int imw, int imh, int roix, int roiy, int roiw, int roih, int rmin, int rmax, double thr, MyHoughAccumulator acc) {
+        if(rmin < 0 || rmax < rmin) {
+            return null;
+        }
+
+        // edge pixels and the unit vectors of the gradient
+        int[] edges = new int[roiw * roih];
+        float[] ux = new float[roiw * roih];
+        float[] uy = new float[roiw * roih];
+        int num = 0;
+
+        for(int y = 0; y < roih; y++) {
+            int ym = Math.max(0, y + roiy - 1) * imw;
+            int y0 = (y + roiy) * imw;
+            int yp = Math.min(imh - 1, y + roiy + 1) * imw;
+
+            for(int x = 0; x < roiw; x++) {
+                int xm = Math.max(0, x + roix - 1);
+                int x0 = x + roix;
+                int xp = Math.min(imw - 1, x + roix + 1);
+
+                // Sobel
+                int gx = (pSrc[ym + xp] & 0xff) + 2 * (pSrc[y0 + xp] & 0xff) + (pSrc[yp + xp] & 0xff) - (pSrc[ym + xm] & 0xff) - 2 * (pSrc[y0 + xm] & 0xff) - (pSrc[yp + xm] & 0xff);
+                int gy = (pSrc[yp + xm] & 0xff) + 2 * (pSrc[yp + x0] & 0xff) + (pSrc[yp + xp] & 0xff) - (pSrc[ym + xm] & 0xff) - 2 * (pSrc[ym + x0] & 0xff) - (pSrc[ym + xp] & 0xff);
+                double mag = Math.sqrt((double)gx * gx + (double)gy * gy);
+
+                if(mag != 0 && thr <= mag) {
+                    edges[num] = y * roiw + x;
+                    ux[num] = (float)(gx / mag);
+                    uy[num] = (float)(gy / mag);
+                    num++;
+                }
+            }
+        }
+
+        int[] edgesRoi = Arrays.copyOf(edges, num);
+        int depthR = (rmax - rmin) + 1;
+
+        if(acc == null) {
+            // a cell gets at most 2 votes from each edge pixel on its circle
+            acc = MyHoughAccumulator.create(roiw, roih, depthR, (long)num * depthR * 2, 2 * Math.min(num, perimeter(rmax)));
+        }
+
+        // vote both sides of the edge along the gradient line
+        voteInParallel(edgesRoi, roiw, roih, rmin, rmax, 2, acc, (from, to, indR, band) -> {
+            int r = rmin + indR;
+
+            for(int i = from; i < to; i++) {
+                int x = edgesRoi[i] % roiw;
+                int y = edgesRoi[i] / roiw;
+                int dx = Math.round(r * ux[i]);
+                int dy = Math.round(r * uy[i]);
+
+                band.add(x + dx, y + dy);
+                band.add(x - dx, y - dy);
+            }
+        });
+
+        return acc;
+    }
+
+    // vote the radii and the bands of the edge pixels in parallel
+    private static void voteInParallel(int[] edges, int roiw, int roih, int rmin, int rmax, int votesPerEdge, MyHoughAccumulator hough, Voter voter) {
+        int depthR = (rmax - rmin) + 1;
+        int numBands = Math.max(1, Math.min((PARALLELISM * 4 + depthR - 1) / depthR, roih / Math.max(1, rmax)));
+        Object[] locks = new Object[depthR];
+
+        for(int indR = 0; indR < depthR; indR++) {
+            locks[indR] = new Object();
+        }
+
+        IntStream.range(0, depthR * numBands).parallel().forEach(task -> {
+            int indR = task / numBands;
+            int band = task % numBands;
+            int r = rmin + indR;
+            int y0 = (int)((long)roih * band / numBands);
+            int y1 = (int)((long)roih * (band + 1) / numBands);
+
+            // the votes of the band reach r rows above and below the band
+            int accY0 = Math.max(0, y0 - r);
+            int accY1 = Math.min(roih, y1 + r);
+            int from = lowerBound(edges, y0 * roiw);
+            int to = lowerBound(edges, y1 * roiw);
+            BandVotes votes = new BandVotes(roiw, accY0, accY1, (long)(to - from) * votesPerEdge);
+
+            voter.vote(from, to, indR, votes);
+
+            synchronized(locks[indR]) {
+                votes.addTo(hough, indR);
+            }
+        });
+    }
+
+    // number of the pixels around a circle of radius r (upper estimate)
+    private static long perimeter(int r) {
+        return (long)Math.ceil(2 * Math.PI * (r + 1)) + 8;
+    }
+
+    // indices (y * roiw + x) of the nonzero pixels in the ROI, in ascending order
+    private static int[] extractEdges(byte[] pSrc, int imw, int roix, int roiy, int roiw, int roih) {
+        int[] edges = new int[roiw * roih];
+        int num = 0;
+
+        for(int y = 0; y < roih; y++) {
+            int ofs = (y + roiy) * imw + roix;
+
+            for(int x = 0; x < roiw; x++) {
+                if(pSrc[ofs + x] != 0) {
+                    edges[num++] = y * roiw + x;
+                }
+            }
+        }
+
+        return Arrays.copyOf(edges, num);
+    }
+
+    // first index of edges whose value is key or more
+    private static int lowerBound(int[] edges, int key) {
+        int lo = 0;
+        int hi = edges.length;
+
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if(edges[mid] < key) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    // vote edges[from, to) for one radius into acc (rows from accY0 to accY1 of the plane)
+    private static void vote(int[] edges, int from, int to, int roiw, int[] cosLut, int[] sinLut, int lutSize, int depthR, int indR, BandVotes band) {
+        for(int i = from; i < to; i++) {
+            int x = edges[i] % roiw;
+            int y = edges[i] / roiw;
+
+            for(int k = lutSize - 1; k >= 0; k--) {
+                int c = cosLut[k * depthR + indR];
+                int s = sinLut[k * depthR + indR];
+
+                band.add(x + c, y + s);
+                band.add(x + c, y - s);
+                band.add(x - c, y + s);
+                band.add(x - c, y - s);
+            }
+        }
+    }
+
+    private static int isEdge(byte[] edge, int roiw, int roih, int x, int y) {
+        return (y >= 0) && (y < roih) && (x >= 0) && (x < roiw) && edge[y * roiw + x] != 0 ? 1 : 0;
+    }
+
+    // votes edges[from, to) for one radius into band
+    private interface Voter {
+        void vote(int from, int to, int indR, BandVotes band);
+    }
+
+    // votes of one radius and one band (rows from accY0 to accY1 of the plane)
+    // The buffer is dense unless the band has many more cells than the votes, otherwise the list of the voted cells.
+    private static final class BandVotes {
+        private static final int DENSITY = 32; // dense if the cells are at most DENSITY times the votes (scanning a cell is much cheaper than bucketing a vote)
+
+        private final int roiw;
+        private final int accY0;
+        private final int accY1;
+        private final int[] dense;
+        private final int[] list;
+        private int num = 0;
+
+        BandVotes(int roiw, int accY0, int accY1, long maxVotes) {
+            long cells = (long)(accY1 - accY0) * roiw;
+
+            this.roiw = roiw;
+            this.accY0 = accY0;
+            this.accY1 = accY1;
+            this.dense = cells <= maxVotes * DENSITY ? new int[(int)cells] : null;
+            this.list = cells <= maxVotes * DENSITY ? null : new int[(int)maxVotes];
+        }
+
+        void add(int a, int b) {
+            if((b >= accY0) && (b < accY1) && (a >= 0) && (a < roiw)) {
+                if(dense != null) {
+                    dense[(b - accY0) * roiw + a] += 1;
+                }
+                else {
+                    list[num++] = (b - accY0) * roiw + a;
+                }
+            }
+        }
+
+        void addTo(MyHoughAccumulator hough, int indR) {
+            if(dense != null) {
+                for(int j = 0; j < dense.length; j++) {
+                    if(dense[j] != 0) {
+                        hough.add(indR, accY0 + j / roiw, j % roiw, dense[j]);
+                    }
+                }
+            }
+            else {
+                // bucket the votes by the row (counting sort), then the same cells are adjacent after sorting each row
+                int rows = accY1 - accY0;
+                int[] starts = new int[rows + 1];
+                int[] xs = new int[num];
+
+                for(int j = 0; j < num; j++) {
+                    starts[list[j] / roiw + 1]++;
+                }
+
+                for(int y = 0; y < rows; y++) {
+                    starts[y + 1] += starts[y];
+                }
+
+                int[] next = Arrays.copyOf(starts, rows);
+
+                for(int j = 0; j < num; j++) {
+                    xs[next[list[j] / roiw]++] = list[j] % roiw;
+                }
+
+                for(int y = 0; y < rows; y++) {
+                    Arrays.sort(xs, starts[y], starts[y + 1]);
+
+                    for(int j = starts[y]; j < starts[y + 1];) {
+                        int k = j;
+
+                        while(k < starts[y + 1] && xs[k] == xs[j]) {
+                            k++;
+                        }
+
+                        hough.add(indR, accY0 + y, xs[j], k - j);
+                        j = k;
+                    }
+                }
+            }
+        }
+    }
+
+    // key of the bucket of the clusters
+    private static long bucketKey(int r, int bx, int by) {
+        return ((long)r << 42) | ((long)(bx & 0x1FFFFF) << 21) | (long)(by & 0x1FFFFF);
+    }
+
+    // remove the clusters which have a cluster with more votes within rngSame at the radius - 1 or + 1
+    private void suppressAcrossRadii(double cell) {
+        HashMap<Long, ArrayList<Integer>> buckets = new HashMap<>();
+        int num_res = res.size();
+
+        for(int i = 0; i < num_res; i++) {
+            double[] res_ar = res.get(i);
+            buckets.computeIfAbsent(bucketKey((int)res_ar[IR], (int)(res_ar[IXSUM] / res_ar[IN] / cell), (int)(res_ar[IYSUM] / res_ar[IN] / cell)), k -> new ArrayList<>()).add(i);
+        }
+
+        boolean[] suppressed = new boolean[num_res];
+
+        for(int i = 0; i < num_res; i++) {
+            double[] res_ar = res.get(i);
+            int r = (int)res_ar[IR];
+            double xave = res_ar[IXSUM] / res_ar[IN];
+            double yave = res_ar[IYSUM] / res_ar[IN];
+            int bx = (int)(xave / cell);
+            int by = (int)(yave / cell);
+
+            for(int nr = r - 1; nr <= r + 1 && !suppressed[i]; nr += 2) {
+                for(int dy = -1; dy <= 1 && !suppressed[i]; dy++) {
+                    for(int dx = -1; dx <= 1 && !suppressed[i]; dx++) {
+                        ArrayList<Integer> bucket = buckets.get(bucketKey(nr, bx + dx, by + dy));
+
+                        if(bucket == null) {
+                            continue;
+                        }
+
+                        for(int j : bucket) {
+                            double[] other = res.get(j);
+                            double ox = other[IXSUM] / other[IN];
+                            double oy = other[IYSUM] / other[IN];
+                            boolean stronger = res_ar[IVOTE] < other[IVOTE] || (res_ar[IVOTE] == other[IVOTE] && j < i);
+
+                            if(stronger && Math.abs(ox - xave) <= rngSame && Math.abs(oy - yave) <= rngSame) {
+                                suppressed[i] = true;
+                                break;
                             }
                         }
                     }
@@ -281,19 +752,29 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
             }
         }
 
-        return err;
+        ArrayList<double[]> kept = new ArrayList<double[]>();
+
+        for(int i = 0; i < num_res; i++) {
+            if(!suppressed[i]) {
+                kept.add(res.get(i));
+            }
+        }
+
+        res.clear();
+        res.addAll(kept);
     }
 
-    private void showHoughImg(ImagePlus imp, Rectangle rect, int rmin, int rmax, String title) {
-        imp.setDisplayRange(Short.MIN_VALUE, Short.MAX_VALUE);
+    private void showHoughImg(MyHoughAccumulator acc, int rmin, String title) {
+        // dense planes of a sparse accumulator would take more memory than the transform itself
+        if(acc.isSparse()) {
+            IJ.log("WK_HoughCircles : the Hough image is not output because the accumulator is sparse (" + acc.getWidth() + " x " + acc.getHeight() + " x " + acc.getDepth() + ").");
+            return;
+        }
 
-        ImageStack ims = new ImageStack(rect.width, rect.height);
+        ImageStack ims = new ImageStack(acc.getWidth(), acc.getHeight());
 
-        for(int i = 0; i <= rmax - rmin; i++) {
-            ImagePlus buf = new ImagePlus("buf", new ShortProcessor(rect.width, rect.height));
-            imp.setRoi(0, rect.height * i, rect.width, rect.height);
-            buf = imp.duplicate();
-            ims.addSlice("R = " + Integer.toString(i + rmin), buf.getProcessor());
+        for(int i = 0; i < acc.getDepth(); i++) {
+            ims.addSlice("R = " + Integer.toString(i + rmin), acc.getPlane(i));
         }
 
         ImagePlus stk_imp = new ImagePlus(title, ims);
@@ -303,7 +784,7 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
         mr.runMacro("run(\"Enhance Contrast\", \"saturated=0.35\");", "");
     }
 
-    private void showData(short[] arr_hough_img) {
+    private void showData(MyHoughAccumulator acc) {
         // prepare the ResultsTable
         ResultsTable rt = getResultsTable(true);
 
@@ -314,55 +795,74 @@ public class WK_HoughCircles implements ExtendedPlugInFilter, DialogListener {
             roiMan = getRoiManager(true, true);
         }
 
-        // judge to be the same
-        int w = rect.width;
-        int h = rect.height;
-        int numAll = arr_hough_img.length;
-        int num_res = 0;
+        // judge to be the same (streaming over the cells with more votes than minVotes)
+        // The clusters are bucketed by the radius and the grid of their centers. The cell of the grid is not smaller than rngSame,
+        // so a cell can only match the clusters in the 3x3 buckets around it. The first matching cluster (in the order of creation) is taken as before.
+        double cell = Math.max(1, rngSame);
+        HashMap<Long, ArrayList<Integer>> buckets = new HashMap<>();
 
-        for(int i = 0; i < numAll; i++) {
-            if(minVotes < arr_hough_img[i]) {
-                int x = i % w;
-                int y = i / w % h;
-                int r = i / w / h + rmin;
-                int vt = (int)arr_hough_img[i];
+        acc.forEach(minVotes, (x, y, indR, vt) -> {
+            int r = indR + rmin;
+            int bx = (int)(x / cell);
+            int by = (int)(y / cell);
+            int match = Integer.MAX_VALUE;
 
-                num_res = res.size();
-                boolean chkMatch = false;
+            for(int dy = -1; dy <= 1; dy++) {
+                for(int dx = -1; dx <= 1; dx++) {
+                    ArrayList<Integer> bucket = buckets.get(bucketKey(r, bx + dx, by + dy));
 
-                if(num_res != 0) {
-                    for(int i_res = 0; i_res < num_res; i_res++) {
-                        double[] res_ar = res.get(i_res);
+                    if(bucket == null) {
+                        continue;
+                    }
 
-                        if(res_ar[IR] == r && res_ar[IXMIN] <= x && x <= res_ar[IXMAX] && res_ar[IYMIN] <= y && y <= res_ar[IYMAX]) {
-                            res_ar[IXSUM] += (double)x;
-                            res_ar[IYSUM] += (double)y;
-                            res_ar[IN] += 1;
-                            double xave = res_ar[IXSUM] / res_ar[IN];
-                            double yave = res_ar[IYSUM] / res_ar[IN];
-                            res_ar[IXMIN] = xave - rngSame;
-                            res_ar[IXMAX] = xave + rngSame;
-                            res_ar[IYMIN] = yave - rngSame;
-                            res_ar[IYMAX] = yave + rngSame;
-
-                            if(res_ar[IVOTE] < vt) {
-                                res_ar[IVOTE] = vt;
-                            }
+                    for(int i_res : bucket) {
+                        double[] res_ar = res.get(i_res);
 
-                            chkMatch = true;
-                            break;
+                        if(i_res < match && res_ar[IXMIN] <= x && x <= res_ar[IXMAX] && res_ar[IYMIN] <= y && y <= res_ar[IYMAX]) {
+                            match = i_res;
                         }
                     }
                 }
+            }
+
+            if(match != Integer.MAX_VALUE) {
+                double[] res_ar = res.get(match);
+                long keyOld = bucketKey(r, (int)((res_ar[IXSUM] / res_ar[IN]) / cell), (int)((res_ar[IYSUM] / res_ar[IN]) / cell));
+
+                res_ar[IXSUM] += (double)x;
+                res_ar[IYSUM] += (double)y;
+                res_ar[IN] += 1;
+                double xave = res_ar[IXSUM] / res_ar[IN];
+                double yave = res_ar[IYSUM] / res_ar[IN];
+                res_ar[IXMIN] = xave - rngSame;
+                res_ar[IXMAX] = xave + rngSame;
+                res_ar[IYMIN] = yave - rngSame;
+                res_ar[IYMAX] = yave + rngSame;
+
+                if(res_ar[IVOTE] < vt) {
+                    res_ar[IVOTE] = vt;
+                }
+
+                long keyNew = bucketKey(r, (int)(xave / cell), (int)(yave / cell));
 
-                if(!chkMatch) {
-                    res.add(new double[] { (double)r, (double)vt, (double)(x - rngSame), (double)(x + rngSame), (double)(y - rngSame), (double)(y + rngSame), x, y, 1});
+                if(keyNew != keyOld) {
+                    buckets.get(keyOld).remove(Integer.valueOf(match));
+                    buckets.computeIfAbsent(keyNew, k -> new ArrayList<>()).add(match);
                 }
             }
+            else {
+                buckets.computeIfAbsent(bucketKey(r, bx, by), k -> new ArrayList<>()).add(res.size());
+                res.add(new double[] { (double)r, (double)vt, (double)(x - rngSame), (double)(x + rngSame), (double)(y - rngSame), (double)(y + rngSame), x, y, 1});
+            }
+        });
+
+        // non-maximum suppression across the neighbouring radii
+        if(enNms) {
+            suppressAcrossRadii(cell);
         }
 
         // show
-        num_res = res.size();
+        int num_res = res.size();
 
         for(int i = 0; i < num_res; i++) {
             double[] res_ar = res.get(i);